@@ -1,7 +1,20 @@
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 
 public class ArgsParser {
     public static ProcessingConfig parse(String[] args) {
+        return parse(args, null);
+    }
+
+    /**
+     * Разбор аргументов, в котором относительные пути разрешаются относительно
+     * workingDirectory (используется демоном для заданий клиентов).
+     */
+    public static ProcessingConfig parse(String[] args, Path workingDirectory) {
         ProcessingConfig.Builder builder = new ProcessingConfig.Builder();
 
         ArrayList<String> inputFiles = new ArrayList<>();
@@ -9,6 +22,15 @@ public class ArgsParser {
         String prefix = null;
         boolean appendMode = false;
         ProcessingConfig.StatsMode statsMode = ProcessingConfig.StatsMode.NONE;
+        long maxFileBytes = 0;
+        long maxFileLines = 0;
+        int shardCount = 1;
+        ProcessingConfig.Durability durability = ProcessingConfig.Durability.END;
+        long fsyncIntervalBytes = ProcessingConfig.DEFAULT_FSYNC_INTERVAL_BYTES;
+        int prefetchDepth = ProcessingConfig.DEFAULT_PREFETCH_DEPTH;
+        Charset inputEncoding = StandardCharsets.UTF_8;
+        Charset outputEncoding = StandardCharsets.UTF_8;
+        ProcessingConfig.MalformedInput malformedInput = ProcessingConfig.MalformedInput.REPORT;
 
         for (int i = 0; i < args.length; i++) {
             String arg = args[i];
@@ -97,6 +119,79 @@ public class ArgsParser {
                         statsMode = ProcessingConfig.StatsMode.FULL;
                         break;
 
+                    case "--max-size":
+                        maxFileBytes = parseSize(arg, requireValue(args, i++, arg));
+                        break;
+
+                    case "--max-lines":
+                        maxFileLines = parsePositiveLong(arg, requireValue(args, i++, arg));
+                        break;
+
+                    case "--shards":
+                        long shards = parsePositiveLong(arg, requireValue(args, i++, arg));
+                        if (shards > 1024) {
+                            throw new IllegalArgumentException("Количество шардов не может быть больше 1024");
+                        }
+                        shardCount = (int) shards;
+                        break;
+
+                    case "--durability":
+                        String mode = requireValue(args, i++, arg);
+                        switch (mode.toLowerCase()) {
+                            case "none":
+                                durability = ProcessingConfig.Durability.NONE;
+                                break;
+                            case "end":
+                                durability = ProcessingConfig.Durability.END;
+                                break;
+                            case "periodic":
+                                durability = ProcessingConfig.Durability.PERIODIC;
+                                break;
+                            default:
+                                throw new IllegalArgumentException(
+                                        String.format("Опция --durability допускает none, end или periodic, но получила: %s", mode));
+                        }
+                        break;
+
+                    case "--fsync-interval":
+                        fsyncIntervalBytes = parseSize(arg, requireValue(args, i++, arg));
+                        break;
+
+                    case "--prefetch":
+                        long prefetch = parsePositiveLong(arg, requireValue(args, i++, arg));
+                        if (prefetch > 256) {
+                            throw new IllegalArgumentException("Глубина предварительного чтения не может быть больше 256");
+                        }
+                        prefetchDepth = (int) prefetch;
+                        break;
+
+                    case "--encoding":
+                        inputEncoding = parseCharset(arg, requireValue(args, i++, arg));
+                        break;
+
+                    case "--output-encoding":
+                        outputEncoding = parseCharset(arg, requireValue(args, i++, arg));
+                        if (!outputEncoding.canEncode()) {
+                            throw new IllegalArgumentException(
+                                    String.format("Кодировка %s не поддерживает запись", outputEncoding));
+                        }
+                        break;
+
+                    case "--malformed":
+                        String action = requireValue(args, i++, arg);
+                        switch (action.toLowerCase()) {
+                            case "replace":
+                                malformedInput = ProcessingConfig.MalformedInput.REPLACE;
+                                break;
+                            case "report":
+                                malformedInput = ProcessingConfig.MalformedInput.REPORT;
+                                break;
+                            default:
+                                throw new IllegalArgumentException(
+                                        String.format("Опция --malformed допускает replace или report, но получила: %s", action));
+                        }
+                        break;
+
                     default:
                         throw new IllegalArgumentException("Неизвестная опция: "+ arg);
                 }
@@ -109,7 +204,10 @@ public class ArgsParser {
             throw new IllegalArgumentException("Укажите хотя бы один входной файл");
         }
 
-        if (outputDir != null) {
+        if (workingDirectory != null) {
+            builder.workingDirectory(workingDirectory);
+            builder.outputDirectory(outputDir != null ? workingDirectory.resolve(outputDir) : workingDirectory);
+        } else if (outputDir != null) {
             builder.outputDirectory(outputDir);
         }
         if (prefix != null) {
@@ -117,18 +215,87 @@ public class ArgsParser {
         }
         builder.appendMode(appendMode);
         builder.statsMode(statsMode);
+        builder.maxFileBytes(maxFileBytes);
+        builder.maxFileLines(maxFileLines);
+        builder.shardCount(shardCount);
+        builder.durability(durability);
+        builder.fsyncIntervalBytes(fsyncIntervalBytes);
+        builder.prefetchDepth(prefetchDepth);
+        builder.inputEncoding(inputEncoding);
+        builder.outputEncoding(outputEncoding);
+        builder.malformedInput(malformedInput);
         builder.inputFiles(inputFiles.toArray(new String[0]));
 
         return builder.build();
     }
 
+    private static String requireValue(String[] args, int i, String option) {
+        if (i + 1 >= args.length || args[i + 1].startsWith("-") || args[i + 1].trim().isEmpty()) {
+            throw new IllegalArgumentException(String.format("Опция %s требует значение в качестве аргумента", option));
+        }
+        return args[i + 1].trim();
+    }
+
+    private static long parsePositiveLong(String option, String value) {
+        try {
+            long result = Long.parseLong(value);
+            if (result <= 0) {
+                throw new IllegalArgumentException(
+                        String.format("Опция %s требует положительное число, но получила: %s", option, value));
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    String.format("Опция %s требует число, но получила: %s", option, value));
+        }
+    }
+
+    private static long parseSize(String option, String value) {
+        long multiplier = 1;
+        String digits = value;
+        char unit = Character.toUpperCase(value.charAt(value.length() - 1));
+
+        if (unit == 'K') {
+            multiplier = 1024L;
+        } else if (unit == 'M') {
+            multiplier = 1024L * 1024;
+        } else if (unit == 'G') {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            digits = value.substring(0, value.length() - 1);
+        }
+
+        long size = parsePositiveLong(option, digits);
+        if (size > Long.MAX_VALUE / multiplier) {
+            throw new IllegalArgumentException(String.format("Слишком большой размер для опции %s: %s", option, value));
+        }
+        return size * multiplier;
+    }
+
+    // Кроме имен, известных Charset, принимает распространенное написание latin-1
+    private static Charset parseCharset(String option, String value) {
+        String name = value.toLowerCase();
+        if (name.equals("latin-1") || name.equals("latin1")) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        try {
+            return Charset.forName(value);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new IllegalArgumentException(
+                    String.format("Опция %s: неизвестная кодировка: %s", option, value));
+        }
+    }
+
     public static void printUsage() {
         System.out.println("==========================================================");
         System.out.println("|РУКОВОДСТВО ПО ЭКСПЛУАТАЦИИ УТИЛИТЫ КЛАССИФИКАЦИИ ДАННЫХ|");
         System.out.println("==========================================================");
         System.out.println();
         System.out.println("Использование:");
-        System.out.println("    java DataClassifierApp [опции] <входной-файл>...");
+        System.out.println("    java DataClassifierApp [опции] <входной-файл | директория | шаблон | @список>...");
+        System.out.println("    java DataClassifierApp --daemon <сокет> [--max-jobs <N>] [--no-warmup]");
+        System.out.println("    java DataClassifierApp --submit <сокет> [опции] <входные данные>...");
         System.out.println();
         System.out.println("Опции:");
         System.out.println("    -o <путь>       Путь для выходных файлов(текущая директория по умолчанию)");
@@ -136,16 +303,45 @@ public class ArgsParser {
         System.out.println("    -a              Режим добавления данных в уже существующий файл (перезапись по умолчанию)");
         System.out.println("    -s              Краткая статистика по обработанным данным (только количество)");
         System.out.println("    -f              Полная статистика (количество, мин, макс, сумма, среднее)");
+        System.out.println("    --max-size <N>  Переход к следующей части выходного файла после N байт (суффиксы K, M, G)");
+        System.out.println("    --max-lines <N> Переход к следующей части выходного файла после N строк");
+        System.out.println("    --shards <N>    Распределение строк каждого типа по N файлам по хешу содержимого");
+        System.out.println("    --durability <none|end|periodic>");
+        System.out.println("                    Сброс данных на диск: без fsync, fsync в конце (по умолчанию) или периодически");
+        System.out.println("    --fsync-interval <N>");
+        System.out.println("                    Интервал периодического fsync в байтах (суффиксы K, M, G, по умолчанию 64M)");
+        System.out.println("    --prefetch <K>  Количество файлов, подготавливаемых заранее (по умолчанию 4)");
+        System.out.println("    --encoding <кодировка>");
+        System.out.println("                    Кодировка входных файлов: utf-8 (по умолчанию), latin-1, utf-16 и др.;");
+        System.out.println("                    для utf-8 и utf-16 метка порядка байтов (BOM) в начале файла имеет приоритет");
+        System.out.println("    --output-encoding <кодировка>");
+        System.out.println("                    Кодировка выходных файлов (utf-8 по умолчанию)");
+        System.out.println("    --malformed <replace|report>");
+        System.out.println("                    Некорректные байты: замена на U+FFFD или пропуск строки с ошибкой (по умолчанию)");
+        System.out.println();
+        System.out.println("Режим демона:");
+        System.out.println("    --daemon <сокет>  Запуск резидентного процесса, принимающего задания через Unix-сокет");
+        System.out.println("    --max-jobs <N>    Количество одновременно выполняемых заданий (по умолчанию - число ядер)");
+        System.out.println("    --no-warmup       Не выполнять прогревочный прогон при запуске демона");
+        System.out.println("    --submit <сокет>  Отправка задания запущенному демону с обычными опциями и входными данными");
+        System.out.println();
+        System.out.println("Входные данные:");
+        System.out.println("    файл            - обрабатывается как есть");
+        System.out.println("    директория      - рекурсивно обрабатываются все файлы в ней");
+        System.out.println("    \"data/**/*.txt\" - glob-шаблон (в кавычках, чтобы его не раскрывала оболочка)");
+        System.out.println("    @список         - файл со списком входных путей, по одному в строке");
         System.out.println();
         System.out.println("Выходные файлы:");
         System.out.println("    integers.txt    - целые числа");
         System.out.println("    floats.txt      - дробные числа");
         System.out.println("    strings.txt     - строки");
+        System.out.println("    manifest.txt    - список частей с количеством строк и размером (при --max-size, --max-lines, --shards)");
         System.out.println();
         System.out.println("Примеры:");
         System.out.println("    java DataClassifierApp input.txt");
         System.out.println("    java DataClassifierApp -o /tmp -p result_ -a -f input1.txt input2.txt");
         System.out.println("    java DataClassifierApp -s data.txt");
+        System.out.println("    java DataClassifierApp -s /data/input \"logs/*.txt\" @files.lst");
         System.out.println();
     }
 }
\ No newline at end of file
@@ -0,0 +1,336 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Режим демона: держит прогретый классификатор в памяти и принимает задания через
+ * локальный Unix-сокет. Задание - это те же аргументы командной строки, что и при
+ * обычном запуске; в ответ клиент получает отчет и итоговую строку с кодом выхода
+ * и краткой статистикой. Задания делят пулы потоков и буферов, а число одновременно
+ * выполняемых заданий ограничено количеством слотов (по умолчанию - числом ядер).
+ *
+ * Протокол: клиент отправляет строки "CLASSIFY 1", рабочую директорию, количество
+ * аргументов и сами аргументы, по одному в строке. Демон отвечает строками отчета,
+ * последняя из которых начинается с "#RESULT ".
+ */
+public class ClassifierDaemon {
+    public static final String PROTOCOL_HEADER = "CLASSIFY 1";
+    public static final String RESULT_MARKER = "#RESULT ";
+
+    private static final int WARMUP_LINES = 50_000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    private final Path socketPath;
+    private final int maxJobs;
+    private final boolean warmup;
+    private final ClassifierEngine engine;
+    private final Semaphore admission;
+    private final ConcurrentHashMap<String, OutputLock> outputLocks = new ConcurrentHashMap<>();
+    private final ExecutorService handlers = Executors.newCachedThreadPool(ClassifierEngine.daemonThreadFactory("job"));
+
+    public ClassifierDaemon(Path socketPath, int maxJobs, boolean warmup) {
+        this.socketPath = socketPath;
+        this.maxJobs = maxJobs;
+        this.warmup = warmup;
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.engine = new ClassifierEngine(cores * 2, cores,
+                maxJobs * (ProcessingConfig.DEFAULT_PREFETCH_DEPTH + 1));
+        this.admission = new Semaphore(maxJobs, true);
+    }
+
+    /**
+     * Разбирает аргументы вида "--daemon <сокет> [--max-jobs N] [--no-warmup]"
+     * и запускает демон. Возвращает код выхода.
+     */
+    public static int runDaemon(String[] args) {
+        if (args.length < 2 || args[1].startsWith("-")) {
+            throw new IllegalArgumentException("Опция --daemon требует путь к сокету в качестве аргумента");
+        }
+
+        int maxJobs = Runtime.getRuntime().availableProcessors();
+        boolean warmup = true;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--max-jobs":
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Опция --max-jobs требует число в качестве аргумента");
+                    }
+                    try {
+                        maxJobs = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Опция --max-jobs требует число, но получила: " + args[i]);
+                    }
+                    if (maxJobs < 1) {
+                        throw new IllegalArgumentException("Количество слотов должно быть положительным");
+                    }
+                    break;
+                case "--no-warmup":
+                    warmup = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Неизвестная опция демона: " + args[i]);
+            }
+        }
+
+        try {
+            new ClassifierDaemon(Paths.get(args[1]).toAbsolutePath(), maxJobs, warmup).serve();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("ОШИБКА ДЕМОНА: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Отправляет задание демону: "--submit <сокет> [опции] <входные данные>...".
+     * Печатает отчет демона и возвращает код выхода задания.
+     */
+    public static int submit(String[] args) {
+        if (args.length < 2 || args[1].startsWith("-")) {
+            throw new IllegalArgumentException("Опция --submit требует путь к сокету в качестве аргумента");
+        }
+        for (String arg : args) {
+            if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("Аргументы задания не могут содержать перевод строки");
+            }
+        }
+
+        Path socket = Paths.get(args[1]);
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            BufferedWriter request = new BufferedWriter(
+                    new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            request.write(PROTOCOL_HEADER);
+            request.write('\n');
+            request.write(Paths.get("").toAbsolutePath().toString());
+            request.write('\n');
+            request.write(String.valueOf(args.length - 2));
+            request.write('\n');
+            for (int i = 2; i < args.length; i++) {
+                request.write(args[i]);
+                request.write('\n');
+            }
+            request.flush();
+
+            BufferedReader response = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while ((line = response.readLine()) != null) {
+                if (line.startsWith(RESULT_MARKER)) {
+                    String result = line.substring(RESULT_MARKER.length());
+                    int space = result.indexOf(' ');
+                    System.out.println("РЕЗУЛЬТАТ: " + (space >= 0 ? result.substring(space + 1) : ""));
+                    return Integer.parseInt(space >= 0 ? result.substring(0, space) : result);
+                }
+                System.out.println(line);
+            }
+            System.err.println("ДЕМОН ЗАКРЫЛ СОЕДИНЕНИЕ, НЕ ВЕРНУВ РЕЗУЛЬТАТ");
+            return 1;
+        } catch (IOException e) {
+            System.err.println("НЕ УДАЛОСЬ ПОДКЛЮЧИТЬСЯ К ДЕМОНУ " + socket + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    public void serve() throws IOException {
+        if (Files.exists(socketPath)) {
+            if (isListening(socketPath)) {
+                throw new IOException("ДЕМОН УЖЕ ЗАПУЩЕН НА СОКЕТЕ " + socketPath);
+            }
+            Files.deleteIfExists(socketPath);
+        }
+
+        if (warmup) {
+            warmUp();
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                System.err.println("ОШИБКА ОСТАНОВКИ ДЕМОНА: " + e.getMessage());
+            }
+            handlers.shutdownNow();
+            engine.close();
+        }, "daemon-shutdown"));
+
+        System.out.println("ДЕМОН ЗАПУЩЕН: " + socketPath + " (СЛОТОВ ДЛЯ ЗАДАНИЙ: " + maxJobs + ")");
+
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!server.isOpen()) {
+                    break;
+                }
+                System.err.println("ОШИБКА ПРИЕМА СОЕДИНЕНИЯ: " + e.getMessage());
+                continue;
+            }
+            handlers.execute(() -> handle(client));
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(Channels.newOutputStream(channel), true, StandardCharsets.UTF_8);
+
+            String header = reader.readLine();
+            if (header == null) {
+                return;
+            }
+            if (!PROTOCOL_HEADER.equals(header)) {
+                out.println("НЕИЗВЕСТНЫЙ ЗАПРОС: " + header);
+                out.println(RESULT_MARKER + "1 error=protocol");
+                return;
+            }
+
+            Path workingDirectory;
+            String[] args;
+            try {
+                workingDirectory = Paths.get(reader.readLine());
+                args = new String[Integer.parseInt(reader.readLine())];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = reader.readLine();
+                    if (args[i] == null) {
+                        throw new IOException("ЗАПРОС ОБОРВАН");
+                    }
+                }
+            } catch (RuntimeException e) {
+                out.println("НЕКОРРЕКТНЫЙ ЗАПРОС: " + e.getMessage());
+                out.println(RESULT_MARKER + "1 error=protocol");
+                return;
+            }
+
+            runJob(args, workingDirectory, out);
+        } catch (IOException e) {
+            System.err.println("ОШИБКА ОБРАБОТКИ ЗАДАНИЯ: " + e.getMessage());
+        }
+    }
+
+    private void runJob(String[] args, Path workingDirectory, PrintStream out) {
+        ProcessingConfig config;
+        try {
+            config = ArgsParser.parse(args, workingDirectory);
+        } catch (IllegalArgumentException e) {
+            out.println("ОШИБКА В АРГУМЕНТАХ: " + e.getMessage());
+            out.println(RESULT_MARKER + "1 error=arguments");
+            return;
+        }
+
+        // Задания с одной выходной директорией и префиксом выполняются по очереди,
+        // иначе они делили бы временные файлы и журнал
+        String outputKey = config.getOutputDirectory().toAbsolutePath().normalize() + "|" + config.getFilePrefix();
+        OutputLock outputLock = acquireOutputLock(outputKey);
+        try {
+            synchronized (outputLock) {
+                boolean admitted = false;
+                try {
+                    if (!admission.tryAcquire()) {
+                        out.println("ВСЕ СЛОТЫ ЗАНЯТЫ, ЗАДАНИЕ ОЖИДАЕТ В ОЧЕРЕДИ");
+                        admission.acquire();
+                    }
+                    admitted = true;
+
+                    DataClassifier classifier = new DataClassifier(config, engine, out, out);
+                    boolean success = classifier.process();
+                    out.println(RESULT_MARKER + (success ? 0 : 1) + " " + classifier.getResultSummary());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    out.println(RESULT_MARKER + "1 error=interrupted");
+                } catch (Exception e) {
+                    out.println("КРИТИЧЕСКАЯ ОШИБКА ПРИ ВЫПОЛНЕНИИ: " + e.getMessage());
+                    out.println(RESULT_MARKER + "1 error=internal");
+                } finally {
+                    if (admitted) {
+                        admission.release();
+                    }
+                }
+            }
+        } finally {
+            releaseOutputLock(outputKey);
+        }
+    }
+
+    // Блокировка выходной директории и префикса существует, пока ее ждет или держит
+    // хотя бы одно задание, поэтому карта не растет с числом разных директорий
+    private OutputLock acquireOutputLock(String key) {
+        return outputLocks.compute(key, (k, lock) -> {
+            OutputLock acquired = lock != null ? lock : new OutputLock();
+            acquired.users++;
+            return acquired;
+        });
+    }
+
+    private void releaseOutputLock(String key) {
+        outputLocks.computeIfPresent(key, (k, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    // Прогон на синтетических данных, чтобы JIT скомпилировал горячий цикл до первого задания
+    private void warmUp() throws IOException {
+        long started = System.nanoTime();
+        Path directory = Files.createTempDirectory("classifier-warmup");
+        try {
+            Path input = directory.resolve("warmup.txt");
+            try (BufferedWriter writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < WARMUP_LINES; i++) {
+                    writer.write(i + " слово -" + i + ".5 word" + (i % 97) + " 1,000 " + i + "e-3 NaN");
+                    writer.newLine();
+                }
+            }
+
+            PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                ProcessingConfig config = new ProcessingConfig.Builder()
+                        .outputDirectory(directory.resolve("out"))
+                        .statsMode(round % 2 == 0 ? ProcessingConfig.StatsMode.FULL : ProcessingConfig.StatsMode.SIMPLE)
+                        .durability(ProcessingConfig.Durability.NONE)
+                        .inputFiles(input)
+                        .build();
+                new DataClassifier(config, engine, silent, silent).process();
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("ПРОГРЕВ ЗАВЕРШЕН ЗА " + (System.nanoTime() - started) / 1_000_000 + " МС");
+    }
+
+    // Счетчик users меняется только внутри compute карты outputLocks
+    private static final class OutputLock {
+        private int users;
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ресурсы, общие для запусков классификатора: пул потоков предварительного чтения,
+ * пул обхода директорий и пул буферов. При однократном запуске создаются на время
+ * обработки, в режиме демона живут весь срок работы процесса и делятся между заданиями.
+ * Пул обхода создается при первом обращении: для списка обычных файлов он не нужен.
+ */
+public class ClassifierEngine implements Closeable {
+    public static final int SMALL_FILE_BUFFER_SIZE = 256 * 1024;
+
+    private final ExecutorService prefetchExecutor;
+    private final int walkerThreads;
+    private final BufferPool bufferPool;
+    private ForkJoinPool walkerPool;
+    private boolean closed = false;
+
+    public ClassifierEngine(int prefetchThreads, int walkerThreads, int pooledBuffers) {
+        this.prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads, daemonThreadFactory("prefetch"));
+        this.walkerThreads = walkerThreads;
+        this.bufferPool = new BufferPool(SMALL_FILE_BUFFER_SIZE, pooledBuffers);
+    }
+
+    public ExecutorService getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+
+    public synchronized ForkJoinPool getWalkerPool() {
+        if (closed) {
+            throw new IllegalStateException("Engine is closed");
+        }
+        if (walkerPool == null) {
+            walkerPool = new ForkJoinPool(walkerThreads);
+        }
+        return walkerPool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        prefetchExecutor.shutdownNow();
+        if (walkerPool != null) {
+            walkerPool.shutdownNow();
+        }
+    }
+
+    static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
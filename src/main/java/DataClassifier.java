@@ -1,17 +1,17 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.PrintStream;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 
 public class DataClassifier {
     private final ProcessingConfig config;
+    private final ClassifierEngine sharedEngine;
+    private final PrintStream out;
+    private final PrintStream err;
     private final Statistics intStats;
     private final Statistics floatStats;
     private final Statistics stringStats;
@@ -19,17 +19,61 @@ public class DataClassifier {
     private final AtomicInteger processedFiles = new AtomicInteger(0);
     private final AtomicInteger failedFiles = new AtomicInteger(0);
 
-    private BufferedWriter intWriter = null;
-    private BufferedWriter floatWriter = null;
-    private BufferedWriter stringWriter = null;
+    private final OutputJournal journal;
+    private final OutputSink intSink;
+    private final OutputSink floatSink;
+    private final OutputSink stringSink;
+    private final List<OutputSink> sinks;
+    private final Path outputDirectory;
+    private final Pattern ownFileNames;
+    private boolean outputFailed = false;
+    private boolean rolledBack = false;
+    private boolean partiallyCommitted = false;
+    private int totalFiles = 0;
+
+    private final LineReader lineReader = new LineReader();
+    private final OutputLine intLine = new OutputLine();
+    private final OutputLine floatLine = new OutputLine();
+    private final OutputLine stringLine = new OutputLine();
 
     public DataClassifier(ProcessingConfig config) {
+        this(config, null, System.out, System.err);
+    }
+
+    /**
+     * Классификатор, использующий общие ресурсы engine (если не null)
+     * и выводящий отчет в out и err вместо стандартных потоков.
+     */
+    public DataClassifier(ProcessingConfig config, ClassifierEngine engine, PrintStream out, PrintStream err) {
         this.config = config;
+        this.sharedEngine = engine;
+        this.out = out;
+        this.err = err;
 
         boolean fullStats = config.getStatsMode() == ProcessingConfig.StatsMode.FULL;
         this.intStats = new IntStatistics(fullStats);
         this.floatStats = new FloatStatistics(fullStats);
         this.stringStats = new StringStatistics(fullStats);
+
+        this.journal = config.isAppendMode()
+                ? new OutputJournal(OutputJournal.pathFor(config),
+                        config.getDurability() != ProcessingConfig.Durability.NONE)
+                : null;
+        this.intSink = new OutputSink(config, journal, "integers", config.getIntegersOutputPath());
+        this.floatSink = new OutputSink(config, journal, "floats", config.getFloatsOutputPath());
+        this.stringSink = new OutputSink(config, journal, "strings", config.getStringsOutputPath());
+        this.sinks = Arrays.asList(intSink, floatSink, stringSink);
+
+        this.outputDirectory = config.getOutputDirectory().toAbsolutePath().normalize();
+        StringJoiner names = new StringJoiner("|");
+        for (Path target : Arrays.asList(config.getIntegersOutputPath(), config.getFloatsOutputPath(),
+                config.getStringsOutputPath(), config.getManifestPath())) {
+            String name = target.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            names.add(Pattern.quote(name.substring(0, dot)) + "(-\\d{2,4})?(-\\d{5})?" + Pattern.quote(name.substring(dot)));
+        }
+        this.ownFileNames = Pattern.compile("\\.?(" + names + ")(\\.tmp)?|"
+                + Pattern.quote(OutputJournal.pathFor(config).getFileName().toString()));
     }
 
     public boolean process() {
@@ -37,21 +81,67 @@ public class DataClassifier {
             return false;
         }
 
-        System.out.println("ОБРАБОТКА ВХОДНЫХ ФАЙЛОВ");
-        System.out.println("ВЫХОДНАЯ ДИРЕКТОРИЯ: " + config.getOutputDirectory());
-        System.out.println("ПРЕФИКС ФАЙЛОВ: \"" + config.getFilePrefix() + "\"");
-        System.out.println("РЕЖИМ " + (config.isAppendMode() ? "ДОБАВЛЕНИЯ" : "ПЕРЕЗАПИСИ"));
-        System.out.println();
+        if (!recoverInterruptedRun()) {
+            return false;
+        }
 
-        for (Path inputFile : config.getInputFiles()) {
-            processFile(inputFile);
+        out.println("ОБРАБОТКА ВХОДНЫХ ФАЙЛОВ");
+        out.println("ВЫХОДНАЯ ДИРЕКТОРИЯ: " + config.getOutputDirectory());
+        out.println("ПРЕФИКС ФАЙЛОВ: \"" + config.getFilePrefix() + "\"");
+        out.println("РЕЖИМ " + (config.isAppendMode() ? "ДОБАВЛЕНИЯ" : "ПЕРЕЗАПИСИ"));
+        out.println();
+
+        int depth = config.getPrefetchDepth();
+        ClassifierEngine engine = sharedEngine != null
+                ? sharedEngine
+                : new ClassifierEngine(depth, Runtime.getRuntime().availableProcessors(), depth + 1);
+
+        try (InputExpander expander = new InputExpander(
+                     config.getInputs(), config.getWorkingDirectory(), engine, this::isOwnOutput).start();
+             InputPrefetcher prefetcher = new InputPrefetcher(
+                     expander, depth, engine.getPrefetchExecutor(), engine.getBufferPool())) {
+            while (!outputFailed && prefetcher.hasNext()) {
+                InputPrefetcher.Input input = prefetcher.next();
+                try {
+                    processFile(input);
+                } finally {
+                    closeQuietly(input);
+                }
+                reportExpansionErrors(expander);
+            }
+            reportExpansionErrors(expander);
+            totalFiles += expander.getFileCount();
+        } finally {
+            if (engine != sharedEngine) {
+                engine.close();
+            }
         }
 
-        closeAllWriters();
+        boolean closed = closeAllWriters();
+
+        if (closed && !outputFailed && (errors.isEmpty() || processedFiles.get() > 0)) {
+            commitOutputs();
+        } else {
+            rollbackOutputs();
+        }
 
         printSummary();
 
-        return errors.isEmpty() || processedFiles.get() > 0;
+        return !rolledBack && !partiallyCommitted && (errors.isEmpty() || processedFiles.get() > 0);
+    }
+
+    /**
+     * Краткий машиночитаемый итог последнего вызова process() в формате ключ=значение.
+     */
+    public String getResultSummary() {
+        return "processed=" + processedFiles.get()
+                + " failed=" + failedFiles.get()
+                + " total=" + totalFiles
+                + " integers=" + intStats.getCount()
+                + " floats=" + floatStats.getCount()
+                + " strings=" + stringStats.getCount()
+                + " errors=" + errors.size()
+                + " committed=" + (rolledBack ? "false" : partiallyCommitted ? "partial" : "true");
     }
 
     private boolean validateOutputDirectory() {
@@ -59,125 +149,183 @@ public class DataClassifier {
 
         try {
             if (!Files.exists(outputDir)) {
-                System.out.println("ДИРЕКТОРИИ " + outputDir + " НЕ СУЩЕСТВУЕТ. СОЗДАЮ");
+                out.println("ДИРЕКТОРИИ " + outputDir + " НЕ СУЩЕСТВУЕТ. СОЗДАЮ");
                 Files.createDirectories(outputDir);
-                System.out.println("ДИРЕКТОРИЯ " + outputDir + " СОЗДАНА");
+                out.println("ДИРЕКТОРИЯ " + outputDir + " СОЗДАНА");
             } else if (!Files.isDirectory(outputDir)) {
-                System.err.println("ОШИБКА: " + outputDir + " СУЩЕСТВУЕТ, НО ЭТО НЕ ДИРЕКТОРИЯ");
+                err.println("ОШИБКА: " + outputDir + " СУЩЕСТВУЕТ, НО ЭТО НЕ ДИРЕКТОРИЯ");
                 return false;
             } else if (!Files.isWritable(outputDir)) {
-                System.err.println("ОШИБКА: ДИРЕКТОРИЯ" + outputDir + " НЕДОСТУПНА ДЛЯ ЗАПИСИ");
+                err.println("ОШИБКА: ДИРЕКТОРИЯ" + outputDir + " НЕДОСТУПНА ДЛЯ ЗАПИСИ");
                 return false;
             } else if (!Files.isReadable(outputDir)) {
-                System.err.println("ОШИБКА: ДИРЕКТОРИЯ" + outputDir + " НЕДОСТУПНА ДЛЯ ЧТЕНИЯ");
+                err.println("ОШИБКА: ДИРЕКТОРИЯ" + outputDir + " НЕДОСТУПНА ДЛЯ ЧТЕНИЯ");
                 return false;
             }
 
-            FileStore store = Files.getFileStore(outputDir);
-            long usableSpace = store.getUsableSpace();
+            // File.getUsableSpace, а не FileStore: поиск FileStore читает таблицу монтирования
+            long usableSpace = outputDir.toFile().getUsableSpace();
             if (usableSpace < 1024 * 1024) {
-                System.out.println("ВНИМАНИЕ: НА ДИСКЕ МАЛО СВОБОДНОГО МЕСТА (" +
+                out.println("ВНИМАНИЕ: НА ДИСКЕ МАЛО СВОБОДНОГО МЕСТА (" +
                         formatBytes(usableSpace) + ")");
             }
             return true;
         } catch (IOException e) {
-            System.err.println("ОШИБКА ПРИ РАБОТЕ С ДИРЕКТОРИЕЙ " + outputDir + ": " + e.getMessage());
+            err.println("ОШИБКА ПРИ РАБОТЕ С ДИРЕКТОРИЕЙ " + outputDir + ": " + e.getMessage());
             return false;
         } catch (SecurityException e) {
-            System.err.println("НЕТ ПРАВ ДОСТУПА К ДИРЕКТОРИИ " + outputDir + ": "+ e.getMessage());
+            err.println("НЕТ ПРАВ ДОСТУПА К ДИРЕКТОРИИ " + outputDir + ": "+ e.getMessage());
             return false;
         } catch (Exception e) {
-            System.err.println("НЕИЗВЕСТНАЯ ОШИБКА ПРИ ВАЛИДАЦИИ ДИРЕКТОРИИ " + outputDir + ": " + e.getMessage());
+            err.println("НЕИЗВЕСТНАЯ ОШИБКА ПРИ ВАЛИДАЦИИ ДИРЕКТОРИИ " + outputDir + ": " + e.getMessage());
             return false;
         }
     }
 
-    private void processFile(Path inputFile) {
-        System.out.println("ОБРАБОТКА ФАЙЛА: " + inputFile.getFileName());
-
-        if (!Files.exists(inputFile)) {
-            String error = "ФАЙЛ НЕ НАЙДЕН: " + inputFile;
-            System.err.println("  " + error);
+    private void reportExpansionErrors(InputExpander expander) {
+        for (String error : expander.drainErrors()) {
+            err.println("  " + error);
             errors.add(error);
             failedFiles.incrementAndGet();
-            return;
+            totalFiles++;
         }
+    }
 
-        if (!Files.isRegularFile(inputFile)) {
-            String error = "ПУТЬ " + inputFile + " НЕ ЯВЛЯЕТСЯ ФАЙЛОМ (ВОЗМОЖНО, ДИРЕКТОРИЯ)";
-            System.err.println("  " + error);
-            errors.add(error);
-            failedFiles.incrementAndGet();
-            return;
+    // Обход директорий и шаблонов не должен читать собственные файлы запуска: выходная
+    // директория внутри обходимого дерева пропускается целиком, а при обходе ее самой -
+    // итоговые и временные файлы, журнал и манифест этого префикса
+    private boolean isOwnOutput(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        if (absolute.equals(outputDirectory)) {
+            return true;
+        }
+        return outputDirectory.equals(absolute.getParent())
+                && ownFileNames.matcher(absolute.getFileName().toString()).matches();
+    }
+
+    private boolean recoverInterruptedRun() {
+        Path journalPath = OutputJournal.pathFor(config);
+        try {
+            if (OutputJournal.recover(journalPath)) {
+                out.println("ОБНАРУЖЕН ЖУРНАЛ ПРЕРВАННОГО ЗАПУСКА. ВЫХОДНЫЕ ФАЙЛЫ ВОССТАНОВЛЕНЫ");
+            }
+        } catch (IOException e) {
+            err.println("ОШИБКА ВОССТАНОВЛЕНИЯ ПО ЖУРНАЛУ " + journalPath + ": " + e.getMessage());
+            return false;
         }
+        removeLeftoverTempFiles();
+        return true;
+    }
 
-        if (!Files.isReadable(inputFile)) {
-            String error = "ФАЙЛ НЕ ДОСТУПЕН ДЛЯ ЧТЕНИЯ: " + inputFile;
-            System.err.println("  " + error);
+    // Прерванный запуск в режиме перезаписи оставляет временные файлы своего префикса
+    // (.integers.txt.tmp, .strings-00003.txt.tmp и т.д.). Запуск с тем же префиксом
+    // в ту же директорию одновременно не выполняется, поэтому они ничьи
+    private void removeLeftoverTempFiles() {
+        int removed = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(outputDirectory, ".*.tmp")) {
+            for (Path entry : entries) {
+                if (ownFileNames.matcher(entry.getFileName().toString()).matches() && Files.isRegularFile(entry)) {
+                    Files.deleteIfExists(entry);
+                    removed++;
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            err.println("ВНИМАНИЕ: НЕ УДАЛОСЬ УДАЛИТЬ ВРЕМЕННЫЕ ФАЙЛЫ ПРЕРВАННОГО ЗАПУСКА: " + e.getMessage());
+        }
+        if (removed > 0) {
+            out.println("УДАЛЕНЫ ВРЕМЕННЫЕ ФАЙЛЫ ПРЕРВАННОГО ЗАПУСКА: " + removed);
+        }
+    }
+
+    private void processFile(InputPrefetcher.Input input) {
+        Path inputFile = input.getPath();
+        out.println("ОБРАБОТКА ФАЙЛА: " + inputFile.getFileName());
+
+        if (input.getError() != null) {
+            String error = input.getError();
+            err.println("  " + error);
             errors.add(error);
             failedFiles.incrementAndGet();
             return;
         }
 
-        try {
-            long size = Files.size(inputFile);
-            if (size == 0) {
-                System.out.println("ФАЙЛ ПУСТОЙ: " + inputFile);
-                processedFiles.incrementAndGet();
-                return;
-            }
-            if (size > 100 * 1024 * 1024) {
-                System.out.println("БОЛЬШОЙ ФАЙЛ: " + inputFile + " (" + formatBytes(size) + ")");
-            }
-        } catch (IOException e) {
-            System.err.println("НЕ УДАЛОСЬ ОПРЕДЕЛИТЬ РАЗМЕР ФАЙЛА: " + inputFile);
+        long size = input.getSize();
+        if (size == 0) {
+            out.println("ФАЙЛ ПУСТОЙ: " + inputFile);
+            processedFiles.incrementAndGet();
+            return;
+        }
+        if (size < 0) {
+            err.println("НЕ УДАЛОСЬ ОПРЕДЕЛИТЬ РАЗМЕР ФАЙЛА: " + inputFile);
+        } else if (size > 100 * 1024 * 1024) {
+            out.println("БОЛЬШОЙ ФАЙЛ: " + inputFile + " (" + formatBytes(size) + ")");
         }
 
-        BufferedReader reader = null;
+        boolean reportMalformed = config.getMalformedInput() == ProcessingConfig.MalformedInput.REPORT;
+        DecodingReader reader = null;
         try {
-            reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
+            reader = input.openReader(config.getInputEncoding(), reportMalformed);
+            lineReader.reset(reader);
 
-            String line;
             int lineNumber = 0;
-            while ((line = reader.readLine()) != null) {
+            while (lineReader.nextLine()) {
                 lineNumber++;
-                line = line.trim();
+                if (reportMalformed && reader.consumeMalformedBefore(lineReader.getLineEndOffset())) {
+                    String error = "НЕКОРРЕКТНАЯ КОДИРОВКА В СТРОКЕ " + lineNumber + " ФАЙЛА "
+                            + inputFile.getFileName() + " (" + reader.getCharset() + "), СТРОКА ПРОПУЩЕНА";
+                    err.println("  " + error);
+                    errors.add(error);
+                    continue;
+                }
+                char[] chars = lineReader.getChars();
+                int start = lineReader.getLineStart();
+                int end = lineReader.getLineEnd();
 
-                if (line.isEmpty()) {
+                while (start < end && chars[start] <= ' ') {
+                    start++;
+                }
+                while (end > start && chars[end - 1] <= ' ') {
+                    end--;
+                }
+                if (start == end) {
                     continue;
                 }
 
                 try {
-                    processLine(line, inputFile, lineNumber);
+                    processLine(chars, start, end, inputFile, lineNumber);
                 } catch (Exception e) {
                     String error = String.format("ОШИБКА ОБРАБОТКИ СТРОКИ %d В ФАЙЛЕ %s: %s",
                             lineNumber, inputFile.getFileName(), e.getMessage());
-                    System.err.println("  " + error);
+                    err.println("  " + error);
                     errors.add(error);
                 }
             }
 
+            if (!reportMalformed && reader.getMalformedCount() > 0) {
+                out.println("НЕКОРРЕКТНЫЕ ПОСЛЕДОВАТЕЛЬНОСТИ (" + reader.getCharset() + ") ЗАМЕНЕНЫ НА U+FFFD: "
+                        + reader.getMalformedCount());
+            }
             processedFiles.incrementAndGet();
-            System.out.println("УСПЕШНО ОБРАБОТАН");
+            out.println("УСПЕШНО ОБРАБОТАН");
 
         } catch (IOException e) {
             String error = "ОШИБКА ЧТЕНИЯ ФАЙЛА " + inputFile + ": " + e.getMessage();
-            System.err.println("  " + error);
+            err.println("  " + error);
             errors.add(error);
             failedFiles.incrementAndGet();
         } catch (SecurityException e) {
             String error = "НЕТ ПРАВ ДОСТУПА К ФАЙЛУ " + inputFile + ": " + e.getMessage();
-            System.err.println("  " + error);
+            err.println("  " + error);
             errors.add(error);
             failedFiles.incrementAndGet();
         } catch (OutOfMemoryError e) {
             String error = "НЕДОСТАТОЧНО ПАМЯТИ ДЛЯ ОБРАБОТКИ ФАЙЛА " + inputFile;
-            System.err.println("  " + error);
+            err.println("  " + error);
             errors.add(error);
             failedFiles.incrementAndGet();
         } catch (Exception e) {
             String error = "НЕИЗВЕСТНАЯ ОШИБКА ПРИ ОБРАБОТКЕ ФАЙЛА " + inputFile + ": " + e.getMessage();
-            System.err.println("  " + error);
+            err.println("  " + error);
             errors.add(error);
             failedFiles.incrementAndGet();
         } finally {
@@ -185,99 +333,156 @@ public class DataClassifier {
         }
     }
 
-    private void processLine(String line, Path sourceFile, int lineNumber) {
-        StringBuilder ints = new StringBuilder();
-        StringBuilder floats = new StringBuilder();
-        StringBuilder strings = new StringBuilder();
+    private void processLine(char[] chars, int start, int end, Path sourceFile, int lineNumber) {
+        intLine.clear();
+        floatLine.clear();
+        stringLine.clear();
 
-        try (Scanner scanner = new Scanner(line).useLocale(Locale.US)) {
-            while (scanner.hasNext()) {
-                try {
-                    if (scanner.hasNextBigInteger()) {
-                        String num = scanner.next();
-                        if (!ints.isEmpty()) {
-                            ints.append(' ');
-                        }
-                        ints.append(num);
-                        intStats.addValue(num);
-                    } else if (scanner.hasNextDouble()) {
-                        String num = scanner.next();
-                        if (!floats.isEmpty()) {
-                            floats.append(' ');
-                        }
-                        floats.append(num);
-                        floatStats.addValue(num);
-                    } else {
-                        String word = scanner.next();
-                        if (!strings.isEmpty()) {
-                            strings.append(' ');
-                        }
-                        strings.append(word);
-                        stringStats.addValue(word);
-                    }
-                } catch (Exception e) {
-                    continue;
-                }
+        int pos = start;
+        while (pos < end) {
+            while (pos < end && Character.isWhitespace(chars[pos])) {
+                pos++;
+            }
+            if (pos == end) {
+                break;
+            }
+
+            int tokenStart = pos;
+            while (pos < end && !Character.isWhitespace(chars[pos])) {
+                pos++;
+            }
+
+            switch (TokenClassifier.classify(chars, tokenStart, pos)) {
+                case INTEGER:
+                    intLine.appendToken(chars, tokenStart, pos);
+                    intStats.addClassifiedValue(chars, tokenStart, pos - tokenStart);
+                    break;
+                case FLOAT:
+                    floatLine.appendToken(chars, tokenStart, pos);
+                    floatStats.addClassifiedValue(chars, tokenStart, pos - tokenStart);
+                    break;
+                default:
+                    stringLine.appendToken(chars, tokenStart, pos);
+                    stringStats.addClassifiedValue(chars, tokenStart, pos - tokenStart);
+                    break;
             }
         }
 
         try {
-            if (!ints.isEmpty()) {
-                getOrCreateWriter(() -> intWriter, w -> intWriter = w, config.getIntegersOutputPath());
-                intWriter.write(ints.toString());
-                intWriter.newLine();
+            if (!intLine.isEmpty()) {
+                intSink.writeLine(intLine.chars, 0, intLine.length);
             }
 
-            if (!floats.isEmpty()) {
-                getOrCreateWriter(() -> floatWriter, w -> floatWriter = w, config.getFloatsOutputPath());
-                floatWriter.write(floats.toString());
-                floatWriter.newLine();
+            if (!floatLine.isEmpty()) {
+                floatSink.writeLine(floatLine.chars, 0, floatLine.length);
             }
 
-            if (!strings.isEmpty()) {
-                getOrCreateWriter(() -> stringWriter, w -> stringWriter = w, config.getStringsOutputPath());
-                stringWriter.write(strings.toString());
-                stringWriter.newLine();
+            if (!stringLine.isEmpty()) {
+                stringSink.writeLine(stringLine.chars, 0, stringLine.length);
             }
         } catch (IOException e) {
+            outputFailed = true;
             throw new RuntimeException("ОШИБКА ЗАПИСИ В ВЫХОДНОЙ ФАЙЛ: " + e.getMessage(), e);
         }
     }
 
-    private BufferedWriter getOrCreateWriter(
-            Supplier<BufferedWriter> getter,
-            Consumer<BufferedWriter> setter,
-            Path outputPath) throws IOException {
-
-        BufferedWriter writer = getter.get();
-        if (writer == null) {
-            writer = createWriter(outputPath);
-            setter.accept(writer);
+    private boolean closeAllWriters() {
+        boolean closed = true;
+        for (OutputSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                String error = "ОШИБКА ЗАКРЫТИЯ ВЫХОДНОГО ФАЙЛА: " + e.getMessage();
+                err.println(error);
+                errors.add(error);
+                closed = false;
+            }
         }
-        return writer;
+        return closed;
     }
 
-    private BufferedWriter createWriter(Path path) throws IOException {
-        Set<OpenOption> options = new HashSet<>();
-        options.add(StandardOpenOption.CREATE);
+    private void commitOutputs() {
+        boolean sync = config.getDurability() != ProcessingConfig.Durability.NONE;
+        try {
+            for (OutputSink sink : sinks) {
+                sink.commit();
+            }
+            if (sync) {
+                OutputSink.syncDirectory(config.getOutputDirectory());
+            }
+            if (journal != null) {
+                journal.commit();
+            }
+        } catch (IOException e) {
+            String error = "ОШИБКА ФИКСАЦИИ ВЫХОДНЫХ ФАЙЛОВ: " + e.getMessage();
+            err.println(error);
+            errors.add(error);
 
-        if (config.isAppendMode()) {
-            options.add(StandardOpenOption.APPEND);
-        } else {
-            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+            int committedParts = 0;
+            for (OutputSink sink : sinks) {
+                committedParts += sink.getCommittedPartCount();
+            }
+            if (committedParts > 0) {
+                // Уже переименованные файлы заменили прежние, вернуть их нельзя
+                partiallyCommitted = true;
+                for (OutputSink sink : sinks) {
+                    sink.rollback(err);
+                }
+            } else {
+                rollbackOutputs();
+            }
+            return;
         }
 
-        return Files.newBufferedWriter(path, StandardCharsets.UTF_8, options.toArray(new OpenOption[0]));
-    }
+        // Манифест пишется после фиксации журнала: при сбое до нее журнал обрежет файлы,
+        // а манифест останется согласованным с ними
+        Map<String, String[]> previousManifest = Collections.emptyMap();
+        if (config.isPartitionedOutput()) {
+            if (!config.isAppendMode()) {
+                // Устаревшими считаются только части из прежнего манифеста, поэтому он
+                // читается до замены
+                try {
+                    previousManifest = OutputManifest.read(config.getManifestPath());
+                } catch (IOException e) {
+                    err.println("ВНИМАНИЕ: НЕ УДАЛОСЬ ПРОЧИТАТЬ ПРЕЖНИЙ МАНИФЕСТ " + config.getManifestPath()
+                            + ", УСТАРЕВШИЕ ЧАСТИ НЕ УДАЛЕНЫ: " + e.getMessage());
+                }
+            }
+            try {
+                OutputManifest.write(config.getManifestPath(), sinks, config.isAppendMode(), sync);
+                if (sync) {
+                    OutputSink.syncDirectory(config.getOutputDirectory());
+                }
+            } catch (IOException e) {
+                String error = "ОШИБКА ЗАПИСИ МАНИФЕСТА " + config.getManifestPath() + ": " + e.getMessage();
+                err.println(error);
+                errors.add(error);
+            }
+        }
 
-    private void closeAllWriters() {
-        closeQuietly(intWriter);
-        closeQuietly(floatWriter);
-        closeQuietly(stringWriter);
+        for (OutputSink sink : sinks) {
+            try {
+                sink.removeStaleParts(previousManifest);
+            } catch (IOException e) {
+                err.println("ВНИМАНИЕ: НЕ УДАЛОСЬ УДАЛИТЬ УСТАРЕВШИЕ ЧАСТИ " + sink.getType() + ": " + e.getMessage());
+            }
+        }
+    }
 
-        intWriter = null;
-        floatWriter = null;
-        stringWriter = null;
+    private void rollbackOutputs() {
+        rolledBack = true;
+        for (OutputSink sink : sinks) {
+            sink.rollback(err);
+        }
+        if (journal != null) {
+            try {
+                journal.rollback();
+            } catch (IOException e) {
+                String error = "ОШИБКА ОТКАТА ВЫХОДНЫХ ФАЙЛОВ: " + e.getMessage();
+                err.println(error);
+                errors.add(error);
+            }
+        }
     }
 
     private void closeQuietly(Closeable resource) {
@@ -285,7 +490,7 @@ public class DataClassifier {
             try {
                 resource.close();
             } catch (Exception e) {
-                System.err.println("ОШИБКА ЗАКРЫТИЯ РЕСУРСА: " + e.getMessage());
+                err.println("ОШИБКА ЗАКРЫТИЯ РЕСУРСА: " + e.getMessage());
             }
         }
     }
@@ -304,76 +509,101 @@ public class DataClassifier {
     }
 
     private void printSummary() {
-        System.out.println();
-        System.out.println("==========================================");
-        System.out.println("ИТОГОВЫЙ ОТЧЕТ");
-        System.out.println("==========================================");
-        System.out.println();
+        out.println();
+        out.println("==========================================");
+        out.println("ИТОГОВЫЙ ОТЧЕТ");
+        out.println("==========================================");
+        out.println();
 
         if (config.getStatsMode() != ProcessingConfig.StatsMode.NONE) {
-            System.out.println("СТАТИСТИКА:");
-            System.out.println("__________________________________________");
+            out.println("СТАТИСТИКА:");
+            out.println("__________________________________________");
 
             if (config.getStatsMode() == ProcessingConfig.StatsMode.SIMPLE) {
-                System.out.println("    Целые числа: " + intStats.getCount());
-                System.out.println("    Дробные числа: " + floatStats.getCount());
-                System.out.println("    Строки: " + stringStats.getCount());
+                out.println("    Целые числа: " + intStats.getCount());
+                out.println("    Дробные числа: " + floatStats.getCount());
+                out.println("    Строки: " + stringStats.getCount());
             } else {
-                System.out.println("    " + intStats.getReport());
-                System.out.println("    " + floatStats.getReport());
-                System.out.println("    " + stringStats.getReport());
+                out.println("    " + intStats.getReport());
+                out.println("    " + floatStats.getReport());
+                out.println("    " + stringStats.getReport());
             }
-            System.out.println();
+            out.println();
         }
 
-        System.out.println("СОЗДАННЫЕ ФАЙЛЫ:");
-        System.out.println("__________________________________________");
+        out.println("СОЗДАННЫЕ ФАЙЛЫ:");
+        out.println("__________________________________________");
 
         boolean anyFileCreated = false;
 
-        if (intStats.getCount() > 0) {
-            System.out.println("УСПЕШНО СОЗДАН ФАЙЛ " + config.getIntegersOutputPath().getFileName());
-            anyFileCreated = true;
-        }
-
-        if (floatStats.getCount() > 0) {
-            System.out.println("УСПЕШНО СОЗДАН ФАЙЛ " + config.getFloatsOutputPath().getFileName());
-            anyFileCreated = true;
+        for (OutputSink sink : sinks) {
+            for (OutputSink.Part part : sink.getParts()) {
+                out.println("УСПЕШНО СОЗДАН ФАЙЛ " + part.getPath().getFileName());
+                anyFileCreated = true;
+            }
         }
 
-        if (stringStats.getCount() > 0) {
-            System.out.println("УСПЕШНО СОЗДАН ФАЙЛ " + config.getStringsOutputPath().getFileName());
-            anyFileCreated = true;
+        if (anyFileCreated && config.isPartitionedOutput()) {
+            out.println("МАНИФЕСТ: " + config.getManifestPath().getFileName());
         }
 
-        if (!anyFileCreated) {
-            System.out.println("НИ ОДИН ФАЙЛ НЕ БЫЛ СОЗДАН (НЕТ ДАННЫХ ДЛЯ ЗАПИСИ)");
+        if (rolledBack) {
+            out.println("ИЗМЕНЕНИЯ ОТМЕНЕНЫ, ВЫХОДНЫЕ ФАЙЛЫ ОСТАЛИСЬ В ПРЕЖНЕМ СОСТОЯНИИ");
+        } else if (partiallyCommitted) {
+            out.println("ФИКСАЦИЯ ВЫПОЛНЕНА ЧАСТИЧНО: ЗАМЕНЕНЫ ТОЛЬКО ПЕРЕЧИСЛЕННЫЕ ФАЙЛЫ, ОСТАЛЬНЫЕ (И МАНИФЕСТ) ОСТАЛИСЬ В ПРЕЖНЕМ СОСТОЯНИИ");
+        } else if (!anyFileCreated) {
+            out.println("НИ ОДИН ФАЙЛ НЕ БЫЛ СОЗДАН (НЕТ ДАННЫХ ДЛЯ ЗАПИСИ)");
         }
-        System.out.println();
+        out.println();
 
-        System.out.println("ОБРАБОТКА ФАЙЛОВ:");
-        System.out.println("__________________________________________");
-        System.out.println("    УСПЕШНО ОБРАБОТАНО: " + processedFiles.get());
-        System.out.println("    ОШИБОК: " + failedFiles.get());
-        System.out.println("    ВСЕГО ФАЙЛОВ: " + config.getInputFiles().length);
+        out.println("ОБРАБОТКА ФАЙЛОВ:");
+        out.println("__________________________________________");
+        out.println("    УСПЕШНО ОБРАБОТАНО: " + processedFiles.get());
+        out.println("    ОШИБОК: " + failedFiles.get());
+        out.println("    ВСЕГО ФАЙЛОВ: " + totalFiles);
 
         if (!errors.isEmpty()) {
-            System.out.println("ОБНАРУЖЕННЫЕ ОШИБКИ:");
-            System.out.println("__________________________________________");
+            out.println("ОБНАРУЖЕННЫЕ ОШИБКИ:");
+            out.println("__________________________________________");
             for (int i = 0; i < errors.size(); i++) {
-                System.out.println(" " + (i + 1) + ". " + errors.get(i));
+                out.println(" " + (i + 1) + ". " + errors.get(i));
             }
-            System.out.println();
+            out.println();
         }
 
-        System.out.println("==========================================");
+        out.println("==========================================");
         if (failedFiles.get() == 0) {
-            System.out.println("ОБРАБОТКА ЗАВЕРШЕНА УСПЕШНО");
+            out.println("ОБРАБОТКА ЗАВЕРШЕНА УСПЕШНО");
         } else if (processedFiles.get() > 0) {
-            System.out.println("ОБРАБОТКА ЗАВЕРШЕНА С ОШИБКАМИ");
+            out.println("ОБРАБОТКА ЗАВЕРШЕНА С ОШИБКАМИ");
         } else {
-            System.out.println("ОБРАБОТКА НЕ УДАЛАСЬ");
+            out.println("ОБРАБОТКА НЕ УДАЛАСЬ");
+        }
+        out.println("==========================================");
+    }
+
+    private static final class OutputLine {
+        private char[] chars = new char[256];
+        private int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        boolean isEmpty() {
+            return length == 0;
+        }
+
+        void appendToken(char[] source, int start, int end) {
+            int required = length + 1 + (end - start);
+            if (required > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(required, chars.length * 2));
+            }
+            if (length > 0) {
+                chars[length++] = ' ';
+            }
+            System.arraycopy(source, start, chars, length, end - start);
+            length += end - start;
         }
-        System.out.println("==========================================");
     }
 }
@@ -5,6 +5,19 @@ public class DataClassifierApp {
             System.exit(1);
         }
 
+        if (args[0].equals("--daemon") || args[0].equals("--submit")) {
+            try {
+                System.exit(args[0].equals("--daemon")
+                        ? ClassifierDaemon.runDaemon(args)
+                        : ClassifierDaemon.submit(args));
+            } catch (IllegalArgumentException e) {
+                System.err.println("ОШИБКА В АРГУМЕНТАХ: " + e.getMessage());
+                System.err.println();
+                ArgsParser.printUsage();
+                System.exit(1);
+            }
+        }
+
         ProcessingConfig config = null;
 
         try {
@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Декодирует байты входного файла в символы. Файл, прочитанный в буфер целиком,
+ * декодируется прямо из него без промежуточного копирования, поток читается
+ * блоками по 64 KB; декодер каждый раз получает весь доступный блок, поэтому
+ * участки ASCII проходят его быстрый цикл без посимвольной обработки. Метка
+ * порядка байтов (BOM) в начале данных имеет приоритет над заданной кодировкой
+ * UTF-8 или UTF-16; в однобайтовых кодировках те же байты - обычный текст.
+ * Некорректные последовательности не прерывают чтение: они заменяются на U+FFFD,
+ * а их позиции (в символах от начала файла) запоминаются, чтобы обработка могла
+ * сообщить о них построчно.
+ */
+public class DecodingReader extends Reader {
+    private static final int BYTE_BUFFER_SIZE = 64 * 1024;
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final InputStream in;
+    private final ByteBuffer bytes;
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final boolean trackMalformed;
+    private final char[] pair = new char[2];
+    private CharBuffer chars;
+    private boolean hasPending;
+    private char pending;
+    private boolean eof;
+    private boolean flushed;
+    private long charsRead;
+    private long malformedCount;
+    private long[] malformedPositions;
+    private int malformedHead;
+    private int malformedTail;
+
+    /**
+     * Чтение из готового буфера data[0, length).
+     */
+    public DecodingReader(byte[] data, int length, Charset charset, boolean trackMalformed) throws IOException {
+        this(null, ByteBuffer.wrap(data, 0, length), charset, trackMalformed);
+    }
+
+    public DecodingReader(InputStream in, Charset charset, boolean trackMalformed) throws IOException {
+        this(in, ByteBuffer.allocate(BYTE_BUFFER_SIZE).flip(), charset, trackMalformed);
+    }
+
+    private DecodingReader(InputStream in, ByteBuffer bytes, Charset charset, boolean trackMalformed)
+            throws IOException {
+        this.in = in;
+        this.bytes = bytes;
+        this.eof = in == null;
+        this.trackMalformed = trackMalformed;
+
+        while (bytes.remaining() < 3 && fillBytes()) {
+        }
+        this.charset = detectBom(bytes, charset);
+        this.decoder = this.charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * Кодировка, фактически используемая для чтения (с учетом BOM).
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Количество некорректных последовательностей, замененных на U+FFFD.
+     */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+    /**
+     * Забывает позиции некорректных последовательностей до end (в символах от начала
+     * файла) и сообщает, была ли среди них хотя бы одна. Позиции запоминаются,
+     * только если reader создан с trackMalformed.
+     */
+    public boolean consumeMalformedBefore(long end) {
+        boolean found = false;
+        while (malformedHead < malformedTail && malformedPositions[malformedHead] < end) {
+            malformedHead++;
+            found = true;
+        }
+        if (found && malformedHead == malformedTail) {
+            malformedHead = 0;
+            malformedTail = 0;
+        }
+        return found;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (hasPending) {
+            cbuf[off] = pending;
+            hasPending = false;
+            return 1;
+        }
+        if (len == 1) {
+            // Суррогатная пара не помещается в один символ: декодируем в запасной
+            // буфер и отдаем вторую половину следующим вызовом
+            int read = read(pair, 0, 2);
+            if (read > 0) {
+                cbuf[off] = pair[0];
+                hasPending = read == 2;
+                pending = pair[1];
+            }
+            return read < 0 ? -1 : 1;
+        }
+        while (true) {
+            int read = decode(cbuf, off, len);
+            if (read > 0) {
+                charsRead += read;
+                return read;
+            }
+            if (eof && !bytes.hasRemaining()) {
+                return -1;
+            }
+            fillBytes();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private int decode(char[] cbuf, int off, int len) {
+        if (flushed || (!eof && !bytes.hasRemaining())) {
+            return 0;
+        }
+        CharBuffer out = wrap(cbuf, off, off + len);
+        decodeRange(out, off, eof);
+        if (eof && !bytes.hasRemaining() && out.hasRemaining()) {
+            flushed = !decoder.flush(out).isOverflow();
+        }
+        return out.position() - off;
+    }
+
+    private void decodeRange(CharBuffer out, int off, boolean endOfInput) {
+        while (out.hasRemaining()) {
+            CoderResult result = decoder.decode(bytes, out, endOfInput);
+            if (!result.isError() || !out.hasRemaining()) {
+                return;
+            }
+            markMalformed(charsRead + out.position() - off);
+            out.put(REPLACEMENT);
+            bytes.position(bytes.position() + result.length());
+        }
+    }
+
+    private CharBuffer wrap(char[] cbuf, int position, int limit) {
+        if (chars == null || chars.array() != cbuf) {
+            chars = CharBuffer.wrap(cbuf);
+        }
+        chars.clear();
+        chars.limit(limit);
+        chars.position(position);
+        return chars;
+    }
+
+    private void markMalformed(long position) {
+        malformedCount++;
+        if (!trackMalformed) {
+            return;
+        }
+        if (malformedPositions == null) {
+            malformedPositions = new long[16];
+        } else if (malformedTail == malformedPositions.length) {
+            if (malformedHead > 0) {
+                System.arraycopy(malformedPositions, malformedHead, malformedPositions, 0, malformedTail - malformedHead);
+                malformedTail -= malformedHead;
+                malformedHead = 0;
+            } else {
+                malformedPositions = Arrays.copyOf(malformedPositions, malformedPositions.length * 2);
+            }
+        }
+        malformedPositions[malformedTail++] = position;
+    }
+
+    private boolean fillBytes() throws IOException {
+        if (eof) {
+            return false;
+        }
+        bytes.compact();
+        int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+        if (read > 0) {
+            bytes.position(bytes.position() + read);
+        }
+        bytes.flip();
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private static Charset detectBom(ByteBuffer bytes, Charset charset) {
+        String name = charset.name();
+        if (!name.equals("UTF-8") && !name.startsWith("UTF-16")) {
+            return charset;
+        }
+        byte[] data = bytes.array();
+        int p = bytes.position();
+        int available = bytes.remaining();
+
+        if (available >= 3 && data[p] == (byte) 0xEF && data[p + 1] == (byte) 0xBB && data[p + 2] == (byte) 0xBF) {
+            bytes.position(p + 3);
+            return StandardCharsets.UTF_8;
+        }
+        if (available >= 2 && data[p] == (byte) 0xFE && data[p + 1] == (byte) 0xFF) {
+            bytes.position(p + 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (available >= 2 && data[p] == (byte) 0xFF && data[p + 1] == (byte) 0xFE) {
+            bytes.position(p + 2);
+            return StandardCharsets.UTF_16LE;
+        }
+        return charset;
+    }
+}
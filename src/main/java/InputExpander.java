@@ -0,0 +1,377 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Раскрывает входные аргументы в поток файлов: обычные пути передаются как есть,
+ * директории обходятся рекурсивно, glob-шаблоны сопоставляются с деревом от их
+ * неизменяемой части, а аргумент @список читается построчно. Поддиректории
+ * обходятся параллельно на потоках пула обхода engine, найденные файлы сразу попадают
+ * в ограниченную очередь, из которой их забирает обработка. Пути, для которых
+ * excluded возвращает true, при обходе пропускаются (директории - вместе с содержимым).
+ */
+public class InputExpander implements Iterator<Path>, Closeable {
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final Path END = Paths.get("");
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final String[] inputs;
+    private final Path workingDirectory;
+    private final ClassifierEngine engine;
+    private final Predicate<Path> excluded;
+    private final BlockingQueue<Path> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger fileCount = new AtomicInteger(0);
+    private final Thread producer;
+    private volatile boolean closed = false;
+    private Path next;
+    private boolean finished = false;
+
+    public InputExpander(String[] inputs, Path workingDirectory, ClassifierEngine engine, Predicate<Path> excluded) {
+        this.inputs = inputs;
+        this.workingDirectory = workingDirectory;
+        this.engine = engine;
+        this.excluded = excluded;
+        this.producer = new Thread(this::expandAll, "input-expander");
+        this.producer.setDaemon(true);
+    }
+
+    public InputExpander start() {
+        producer.start();
+        return this;
+    }
+
+    /**
+     * Ошибки раскрытия аргументов (нечитаемые директории, пустые шаблоны и т.п.),
+     * накопленные с момента предыдущего вызова.
+     */
+    public List<String> drainErrors() {
+        List<String> drained = new ArrayList<>();
+        String error;
+        while ((error = errors.poll()) != null) {
+            drained.add(error);
+        }
+        return drained;
+    }
+
+    public int getFileCount() {
+        return fileCount.get();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        try {
+            Path taken = queue.take();
+            if (taken == END) {
+                finished = true;
+                return false;
+            }
+            next = taken;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = true;
+            return false;
+        }
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Path result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        queue.clear();
+    }
+
+    private void expandAll() {
+        try {
+            for (String input : inputs) {
+                if (closed) {
+                    break;
+                }
+                expand(input, true);
+            }
+        } catch (InterruptedException e) {
+            closed = true;
+        } catch (RuntimeException e) {
+            errors.add("ОШИБКА РАСКРЫТИЯ ВХОДНЫХ АРГУМЕНТОВ: " + e.getMessage());
+        } finally {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (closed) {
+            queue.clear();
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+
+    private void expand(String input, boolean allowList) throws InterruptedException {
+        if (allowList && input.startsWith("@") && input.length() > 1) {
+            expandList(resolve(input.substring(1)));
+            return;
+        }
+
+        String resolved = resolve(input);
+        Path path;
+        try {
+            path = Paths.get(resolved);
+        } catch (InvalidPathException e) {
+            path = null;
+        }
+
+        // Имя файла само может содержать символы шаблона (data[1].txt):
+        // существующий путь имеет приоритет перед раскрытием шаблона
+        if (isGlob(input) && (path == null || !Files.exists(path))) {
+            expandGlob(resolved);
+            return;
+        }
+        if (path == null) {
+            errors.add("НЕКОРРЕКТНЫЙ ПУТЬ: " + input);
+            return;
+        }
+
+        if (Files.isDirectory(path)) {
+            walk(path, Integer.MAX_VALUE, null);
+        } else {
+            emit(path);
+        }
+    }
+
+    private void expandList(String listFile) throws InterruptedException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(listFile), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null && !closed) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                expand(line, false);
+            }
+        } catch (IOException | InvalidPathException e) {
+            errors.add("ОШИБКА ЧТЕНИЯ СПИСКА ФАЙЛОВ " + listFile + ": " + e.getMessage());
+        }
+    }
+
+    private void expandGlob(String pattern) throws InterruptedException {
+        String[] parts = pattern.split(File.separatorChar == '/' ? "/" : "[/\\\\]", -1);
+        int firstGlob = 0;
+        while (firstGlob < parts.length - 1 && !isGlob(parts[firstGlob])) {
+            firstGlob++;
+        }
+        String base = String.join(File.separator, Arrays.asList(parts).subList(0, firstGlob));
+        if (base.isEmpty() && firstGlob > 0) {
+            base = File.separator;
+        }
+
+        Path root;
+        PathMatcher matcher;
+        try {
+            root = Paths.get(base);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + zeroOrMoreDirectories(pattern));
+        } catch (IllegalArgumentException e) {
+            errors.add("НЕКОРРЕКТНЫЙ ШАБЛОН: " + pattern + " (" + e.getMessage() + ")");
+            return;
+        }
+
+        int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : parts.length - firstGlob;
+        int before = fileCount.get();
+        walk(root.toString().isEmpty() || Files.isDirectory(root) ? root : null, maxDepth, matcher);
+        if (fileCount.get() == before) {
+            errors.add("ПО ШАБЛОНУ " + pattern + " НЕ НАЙДЕНО НИ ОДНОГО ФАЙЛА");
+        }
+    }
+
+    private void walk(Path root, int maxDepth, PathMatcher matcher) throws InterruptedException {
+        if (root == null) {
+            return;
+        }
+        engine.getWalkerPool().invoke(new DirectoryTask(root, 1, maxDepth, matcher));
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    // Строковое разрешение, а не Path.resolve: glob-шаблон может не быть корректным путем
+    private String resolve(String input) {
+        if (workingDirectory == null || input.startsWith("/") || input.startsWith(File.separator)
+                || (input.length() > 1 && input.charAt(1) == ':')) {
+            return input;
+        }
+        String base = workingDirectory.toString();
+        return base.endsWith(File.separator) ? base + input : base + File.separator + input;
+    }
+
+    // Пул обхода общий для всех заданий демона: поток пула, ждущий места в очереди
+    // медленного потребителя, сообщает об этом через managedBlock, и пул запускает
+    // компенсирующий поток, чтобы обход других заданий не останавливался
+    private void emit(Path file) throws InterruptedException {
+        ForkJoinPool.managedBlock(new QueuePut(file));
+        fileCount.incrementAndGet();
+    }
+
+    // В glob-шаблонах Java "**/" требует хотя бы одну директорию, поэтому data/**/*.csv
+    // не нашел бы data/x.csv. Вне групп {...} он заменяется на {**/,}, группы не вкладываются
+    private static String zeroOrMoreDirectories(String pattern) {
+        StringBuilder result = new StringBuilder(pattern.length() + 8);
+        boolean inGroup = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < pattern.length()) {
+                result.append(c).append(pattern.charAt(++i));
+                continue;
+            }
+            if (c == '{') {
+                inGroup = true;
+            } else if (c == '}') {
+                inGroup = false;
+            } else if (!inGroup && pattern.startsWith("**/", i)) {
+                result.append("{**/,}");
+                i += 2;
+                continue;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static boolean isGlob(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (GLOB_CHARS.indexOf(value.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class QueuePut implements ForkJoinPool.ManagedBlocker {
+        private final Path file;
+        private boolean done;
+
+        QueuePut(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!done) {
+                queue.put(file);
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done || (done = queue.offer(file));
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final int depth;
+        private final int maxDepth;
+        private final PathMatcher matcher;
+
+        DirectoryTask(Path directory, int depth, int maxDepth, PathMatcher matcher) {
+            this.directory = directory;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.matcher = matcher;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            Path listed = directory.toString().isEmpty() ? Paths.get(".") : directory;
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(listed)) {
+                for (Path entry : entries) {
+                    if (closed) {
+                        return;
+                    }
+                    Path path = directory.toString().isEmpty() ? entry.getFileName() : entry;
+                    if (excluded.test(path)) {
+                        continue;
+                    }
+                    // Ошибка одного элемента (например, файл удален во время обхода)
+                    // не прерывает чтение остальной директории
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException | SecurityException e) {
+                        errors.add("ОШИБКА ЧТЕНИЯ " + path + ": " + e.getMessage());
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        if (depth < maxDepth) {
+                            subdirectories.add(new DirectoryTask(path, depth + 1, maxDepth, matcher));
+                        }
+                    } else if (attributes.isRegularFile()
+                            || (attributes.isSymbolicLink() && Files.isRegularFile(path))) {
+                        if (matcher == null || matcher.matches(path)) {
+                            emit(path);
+                        }
+                    }
+                }
+            } catch (IOException | SecurityException e) {
+                errors.add("ОШИБКА ЧТЕНИЯ ДИРЕКТОРИИ " + directory + ": " + e.getMessage());
+            } catch (DirectoryIteratorException e) {
+                errors.add("ОШИБКА ЧТЕНИЯ ДИРЕКТОРИИ " + directory + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                closed = true;
+                return;
+            }
+
+            invokeAll(subdirectories);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Подготавливает следующие входные файлы, пока текущий классифицируется: проверяет
+ * существование и права, определяет размер и открывает файл на потоках executor'а.
+ * Небольшие файлы целиком читаются в буфер из пула, у больших заранее заполняется
+ * буфер упреждающего чтения. Файлы выдаются строго в исходном порядке.
+ */
+public class InputPrefetcher implements Closeable {
+    public static final int READ_AHEAD_BUFFER_SIZE = 1024 * 1024;
+
+    private final Iterator<Path> files;
+    private final int depth;
+    private final ExecutorService executor;
+    private final BufferPool pool;
+    private final ArrayDeque<Future<Input>> window = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    public InputPrefetcher(Iterator<Path> files, int depth, ExecutorService executor, BufferPool pool) {
+        this.files = files;
+        this.depth = Math.max(1, depth);
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    public boolean hasNext() {
+        fillWindow();
+        return !window.isEmpty();
+    }
+
+    public Input next() {
+        fillWindow();
+        Future<Input> head = window.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        fillWindow();
+
+        try {
+            return head.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ПРЕДВАРИТЕЛЬНОЕ ЧТЕНИЕ ПРЕРВАНО", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("ОШИБКА ПРЕДВАРИТЕЛЬНОГО ЧТЕНИЯ: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Дожидается уже запущенных задач и закрывает открытые ими файлы и буферы:
+     * cancel не останавливает выполняющуюся задачу, и ее результат иначе потерялся бы.
+     * Задачи, еще не начавшие работу, после закрытия ничего не открывают.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        boolean interrupted = false;
+        Future<Input> pending;
+        while ((pending = window.poll()) != null) {
+            while (true) {
+                try {
+                    Input input = pending.get();
+                    if (input != null) {
+                        input.close();
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (Exception e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fillWindow() {
+        while (window.size() < depth && files.hasNext()) {
+            Path file = files.next();
+            window.add(executor.submit(() -> prefetch(file)));
+        }
+    }
+
+    private Input prefetch(Path inputFile) {
+        if (closed) {
+            return null;
+        }
+        if (!Files.exists(inputFile)) {
+            return Input.failed(inputFile, "ФАЙЛ НЕ НАЙДЕН: " + inputFile);
+        }
+        if (!Files.isRegularFile(inputFile)) {
+            return Input.failed(inputFile, "ПУТЬ " + inputFile + " НЕ ЯВЛЯЕТСЯ ФАЙЛОМ (ВОЗМОЖНО, ДИРЕКТОРИЯ)");
+        }
+        if (!Files.isReadable(inputFile)) {
+            return Input.failed(inputFile, "ФАЙЛ НЕ ДОСТУПЕН ДЛЯ ЧТЕНИЯ: " + inputFile);
+        }
+
+        long size;
+        try {
+            size = Files.size(inputFile);
+        } catch (IOException e) {
+            size = -1;
+        }
+        if (size == 0) {
+            return new Input(inputFile, null, 0, null, 0, null, null);
+        }
+
+        try {
+            if (size > 0 && size <= pool.getBufferSize()) {
+                Input small = readWhole(inputFile, size);
+                if (small != null) {
+                    return small;
+                }
+            }
+
+            InputStream stream = new BufferedInputStream(Files.newInputStream(inputFile), READ_AHEAD_BUFFER_SIZE);
+            try {
+                stream.mark(1);
+                stream.read();
+                stream.reset();
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+            return new Input(inputFile, null, size, null, 0, stream, null);
+        } catch (IOException e) {
+            return Input.failed(inputFile, "ОШИБКА ЧТЕНИЯ ФАЙЛА " + inputFile + ": " + e.getMessage());
+        } catch (SecurityException e) {
+            return Input.failed(inputFile, "НЕТ ПРАВ ДОСТУПА К ФАЙЛУ " + inputFile + ": " + e.getMessage());
+        } catch (OutOfMemoryError e) {
+            return Input.failed(inputFile, "НЕДОСТАТОЧНО ПАМЯТИ ДЛЯ ОБРАБОТКИ ФАЙЛА " + inputFile);
+        }
+    }
+
+    // Возвращает null, если файл вырос и уже не помещается в буфер
+    private Input readWhole(Path inputFile, long size) throws IOException {
+        byte[] buffer = pool.acquire();
+        boolean handedOver = false;
+        try (InputStream in = Files.newInputStream(inputFile)) {
+            int length = in.readNBytes(buffer, 0, buffer.length);
+            if (length == buffer.length && in.read() != -1) {
+                return null;
+            }
+            handedOver = true;
+            return new Input(inputFile, null, size, buffer, length, null, pool);
+        } finally {
+            if (!handedOver) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Подготовленный входной файл: либо ошибка проверки, либо содержимое в буфере,
+     * либо открытый поток. Должен быть закрыт после обработки.
+     */
+    public static final class Input implements Closeable {
+        private final Path path;
+        private final String error;
+        private final long size;
+        private byte[] buffer;
+        private final int length;
+        private final InputStream stream;
+        private final BufferPool pool;
+
+        private Input(Path path, String error, long size, byte[] buffer, int length,
+                      InputStream stream, BufferPool pool) {
+            this.path = path;
+            this.error = error;
+            this.size = size;
+            this.buffer = buffer;
+            this.length = length;
+            this.stream = stream;
+            this.pool = pool;
+        }
+
+        static Input failed(Path path, String error) {
+            return new Input(path, error, -1, null, 0, null, null);
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Размер файла в байтах или -1, если его не удалось определить.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Открывает чтение содержимого в кодировке charset (с учетом BOM для UTF-8 и UTF-16).
+         * При trackMalformed reader запоминает позиции некорректных последовательностей.
+         */
+        public DecodingReader openReader(Charset charset, boolean trackMalformed) throws IOException {
+            if (buffer != null) {
+                return new DecodingReader(buffer, length, charset, trackMalformed);
+            }
+            return new DecodingReader(stream, charset, trackMalformed);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                pool.release(buffer);
+                buffer = null;
+            }
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+}
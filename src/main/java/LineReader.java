@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Построчное чтение в переиспользуемый буфер символов. В отличие от
+ * BufferedReader.readLine не создает строку на каждую прочитанную строку:
+ * текущая строка доступна как диапазон [getLineStart(), getLineEnd()) массива getChars().
+ * Концы строк определяются так же, как в readLine: \n, \r или \r\n.
+ */
+public class LineReader {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private char[] buffer;
+    private Reader reader;
+    private int position;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    private long discarded;
+    private boolean eof;
+    private boolean skipLineFeed;
+
+    public LineReader() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LineReader(int capacity) {
+        this.buffer = new char[capacity];
+    }
+
+    public void reset(Reader reader) {
+        this.reader = reader;
+        this.position = 0;
+        this.limit = 0;
+        this.lineStart = 0;
+        this.lineEnd = 0;
+        this.discarded = 0;
+        this.eof = false;
+        this.skipLineFeed = false;
+    }
+
+    public boolean nextLine() throws IOException {
+        if (skipLineFeed) {
+            if (position >= limit && !fill()) {
+                return false;
+            }
+            if (buffer[position] == '\n') {
+                position++;
+            }
+            skipLineFeed = false;
+        }
+
+        int scan = position;
+        while (true) {
+            for (; scan < limit; scan++) {
+                char c = buffer[scan];
+                if (c == '\n' || c == '\r') {
+                    lineStart = position;
+                    lineEnd = scan;
+                    position = scan + 1;
+                    skipLineFeed = c == '\r';
+                    return true;
+                }
+            }
+
+            int scanned = scan - position;
+            if (!fill()) {
+                if (limit > position) {
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan = position + scanned;
+        }
+    }
+
+    public char[] getChars() {
+        return buffer;
+    }
+
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    public int getLineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * Позиция конца текущей строки в символах от начала данных reader'а.
+     */
+    public long getLineEndOffset() {
+        return discarded + lineEnd;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        if (position > 0) {
+            discarded += position;
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
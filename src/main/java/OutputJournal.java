@@ -0,0 +1,122 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Журнал режима добавления: перед первой записью в файл фиксирует его исходную длину
+ * (-1, если файла не было). При неудачном запуске файлы обрезаются до этих длин,
+ * а журнал, оставшийся после аварийного завершения, откатывается при следующем запуске.
+ */
+public class OutputJournal {
+    private static final String JOURNAL_FILE = "classifier.journal";
+
+    private final Path path;
+    private final boolean sync;
+    private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>();
+    private FileChannel channel;
+
+    public OutputJournal(Path path, boolean sync) {
+        this.path = path;
+        this.sync = sync;
+    }
+
+    public static Path pathFor(ProcessingConfig config) {
+        return config.getOutputDirectory().resolve("." + config.getFilePrefix() + JOURNAL_FILE);
+    }
+
+    public synchronized void record(Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        if (entries.containsKey(target)) {
+            return;
+        }
+
+        long length = Files.exists(target) ? Files.size(target) : -1;
+
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        ByteBuffer line = StandardCharsets.UTF_8.encode(length + "\t" + target + "\n");
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        if (sync) {
+            channel.force(true);
+        }
+
+        entries.put(target, length);
+    }
+
+    public synchronized void commit() throws IOException {
+        closeChannel();
+        Files.deleteIfExists(path);
+        entries.clear();
+    }
+
+    public synchronized void rollback() throws IOException {
+        closeChannel();
+        restore(entries);
+        Files.deleteIfExists(path);
+        entries.clear();
+    }
+
+    /**
+     * Откатывает журнал, оставшийся от прерванного запуска.
+     * Возвращает true, если такой журнал был найден.
+     */
+    public static boolean recover(Path journalPath) throws IOException {
+        if (!Files.exists(journalPath)) {
+            return false;
+        }
+
+        Map<Path, Long> recorded = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 2);
+                if (fields.length != 2) {
+                    continue;
+                }
+                try {
+                    recorded.put(Path.of(fields[1]), Long.parseLong(fields[0]));
+                } catch (NumberFormatException e) {
+
+                }
+            }
+        }
+
+        restore(recorded);
+        Files.deleteIfExists(journalPath);
+        return true;
+    }
+
+    private static void restore(Map<Path, Long> recorded) throws IOException {
+        for (Map.Entry<Path, Long> entry : recorded.entrySet()) {
+            Path file = entry.getKey();
+            long length = entry.getValue();
+
+            if (length < 0) {
+                Files.deleteIfExists(file);
+            } else if (Files.exists(file) && Files.size(file) > length) {
+                try (FileChannel truncating = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    truncating.truncate(length);
+                    truncating.force(true);
+                }
+            }
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
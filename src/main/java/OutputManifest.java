@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Манифест частей выходных файлов: по строке на файл в формате
+ * "тип \t имя-файла \t строк \t байт". В режиме добавления количество строк
+ * суммируется с записями предыдущего манифеста. Манифест заменяется атомарно.
+ */
+public class OutputManifest {
+    private static final String HEADER = "#type\tfile\tlines\tbytes";
+
+    private OutputManifest() {
+    }
+
+    public static void write(Path manifestPath, List<OutputSink> sinks,
+                             boolean appendMode, boolean sync) throws IOException {
+        Map<String, String[]> entries = appendMode ? read(manifestPath) : new LinkedHashMap<>();
+
+        for (OutputSink sink : sinks) {
+            for (OutputSink.Part part : sink.getParts()) {
+                String fileName = part.getPath().getFileName().toString();
+                long lines = part.getLines();
+
+                String[] previous = entries.get(fileName);
+                if (previous != null) {
+                    try {
+                        lines += Long.parseLong(previous[2]);
+                    } catch (NumberFormatException e) {
+
+                    }
+                }
+
+                entries.put(fileName, new String[] {
+                        part.getType(), fileName, String.valueOf(lines), String.valueOf(part.getBytes())
+                });
+            }
+        }
+
+        Path temp = OutputSink.tempPathFor(manifestPath);
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (String[] fields : entries.values()) {
+                writer.write(String.join("\t", fields));
+                writer.newLine();
+            }
+        }
+        if (sync) {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+
+        try {
+            Files.move(temp, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Записи существующего манифеста по имени файла (поля: тип, имя, строк, байт)
+     * или пустая карта, если манифеста нет.
+     */
+    static Map<String, String[]> read(Path manifestPath) throws IOException {
+        Map<String, String[]> entries = new LinkedHashMap<>();
+        if (!Files.exists(manifestPath)) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length == 4) {
+                    entries.put(fields[1], fields);
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,498 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Выходной поток одного типа данных (целые, дробные, строки).
+ * Без дополнительных опций пишет в один файл, как и раньше. При заданных лимитах
+ * размера или количества строк переключается на следующую часть
+ * (strings-00001.txt, strings-00002.txt, ...), при нескольких шардах распределяет
+ * строки по шардам по хешу содержимого. Каждый шард имеет собственный буферизованный writer.
+ * В режиме перезаписи данные пишутся во временные файлы, которые переименовываются
+ * в итоговые только в {@link #commit()}; в режиме добавления исходные длины файлов
+ * фиксируются в {@link OutputJournal}.
+ */
+public class OutputSink implements Closeable {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int UTF_8_LENGTH = 0;
+    private static final int ENCODED_LENGTH = -1;
+
+    private final ProcessingConfig config;
+    private final OutputJournal journal;
+    private final String type;
+    private final Path directory;
+    private final String stem;
+    private final String extension;
+    private final Shard[] shards;
+    private final ArrayList<Part> parts = new ArrayList<>();
+    private final ArrayList<Path> pendingFiles = new ArrayList<>();
+    private final int bytesPerChar;
+    private final long separatorBytes;
+    private CharsetEncoder lengthEncoder;
+    private ByteBuffer lengthBuffer;
+    private Map<String, String[]> previousManifest;
+    private int committedParts = 0;
+
+    public OutputSink(ProcessingConfig config, OutputJournal journal, String type, Path basePath) {
+        this.config = config;
+        this.journal = journal;
+        this.type = type;
+        this.directory = basePath.toAbsolutePath().getParent();
+
+        String fileName = basePath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        this.stem = dot > 0 ? fileName.substring(0, dot) : fileName;
+        this.extension = dot > 0 ? fileName.substring(dot) : "";
+
+        this.bytesPerChar = bytesPerChar(config.getOutputEncoding());
+        char[] separator = System.lineSeparator().toCharArray();
+        this.separatorBytes = encodedLength(separator, 0, separator.length);
+
+        this.shards = new Shard[config.getShardCount()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public List<Part> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    public void writeLine(char[] chars, int offset, int length) throws IOException {
+        Shard shard = shards.length == 1 ? shards[0] : shards[shardFor(chars, offset, length)];
+        shard.writeLine(chars, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.closePart();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Атомарно переименовывает временные файлы в итоговые. Вызывается после {@link #close()}.
+     * Если переименование прервалось ошибкой, уже переименованные части остаются
+     * на месте (см. {@link #getCommittedPartCount()}).
+     */
+    public void commit() throws IOException {
+        for (Part part : parts.subList(committedParts, parts.size())) {
+            if (!part.file.equals(part.path)) {
+                try {
+                    Files.move(part.file, part.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(part.file, part.path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                pendingFiles.remove(part.file);
+            }
+            committedParts++;
+        }
+        pendingFiles.clear();
+    }
+
+    /**
+     * Количество частей, уже замененных на новые в режиме перезаписи.
+     */
+    public int getCommittedPartCount() {
+        return config.isAppendMode() ? 0 : committedParts;
+    }
+
+    /**
+     * В режиме перезаписи с разбиением на части удаляет части этого типа, которые
+     * перечислены в манифесте прежнего запуска previousManifest и не созданы заново
+     * (например, после уменьшения числа частей). Файлы, не попавшие в манифест,
+     * не трогаются, даже если их имя похоже на имя части. Вызывается после {@link #commit()}.
+     */
+    public void removeStaleParts(Map<String, String[]> previousManifest) throws IOException {
+        if (config.isAppendMode() || !config.isPartitionedOutput()) {
+            return;
+        }
+        Set<Path> current = new HashSet<>();
+        for (Part part : parts) {
+            current.add(part.path);
+        }
+
+        for (String[] entry : previousManifest.values()) {
+            if (!entry[0].equals(type)) {
+                continue;
+            }
+            Path stale = directory.resolve(entry[1]);
+            if (directory.equals(stale.getParent()) && !current.contains(stale) && Files.isRegularFile(stale)) {
+                Files.deleteIfExists(stale);
+            }
+        }
+    }
+
+    /**
+     * Удаляет временные файлы неудавшегося запуска; в списке частей остаются только
+     * уже переименованные. Файлы режима добавления восстанавливаются через журнал.
+     * Ошибки удаления выводятся в err задания.
+     */
+    public void rollback(PrintStream err) {
+        if (!config.isAppendMode()) {
+            for (Path temp : pendingFiles) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    err.println("НЕ УДАЛОСЬ УДАЛИТЬ ВРЕМЕННЫЙ ФАЙЛ " + temp + ": " + e.getMessage());
+                }
+            }
+        }
+        pendingFiles.clear();
+        parts.subList(getCommittedPartCount(), parts.size()).clear();
+    }
+
+    // Байтов на символ в выходной кодировке: фиксированное число, UTF_8_LENGTH или
+    // ENCODED_LENGTH для остальных кодировок переменной длины
+    private static int bytesPerChar(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return UTF_8_LENGTH;
+        }
+        if (charset.name().startsWith("UTF-16")) {
+            return 2;
+        }
+        return charset.newEncoder().maxBytesPerChar() == 1 ? 1 : ENCODED_LENGTH;
+    }
+
+    // Размер строки после кодирования. Непарный суррогат кодировщик UTF-8 заменяет на '?'
+    private long encodedLength(char[] chars, int offset, int length) {
+        if (bytesPerChar == ENCODED_LENGTH) {
+            return measureEncoded(chars, offset, length);
+        }
+        if (bytesPerChar != UTF_8_LENGTH) {
+            return (long) bytesPerChar * length;
+        }
+        long bytes = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // Прочие кодировки: строка кодируется в запасной буфер с теми же заменами, что
+    // и у OutputStreamWriter. Кодировки с состоянием (ISO-2022-*) получают оценку
+    // сверху, так как строка кодируется с начального состояния
+    private long measureEncoded(char[] chars, int offset, int length) {
+        if (lengthEncoder == null) {
+            lengthEncoder = config.getOutputEncoding().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            lengthBuffer = ByteBuffer.allocate(8192);
+        }
+        CharBuffer in = CharBuffer.wrap(chars, offset, length);
+        lengthEncoder.reset();
+        long bytes = 0;
+        boolean flushed = false;
+        while (true) {
+            CoderResult result = flushed ? lengthEncoder.flush(lengthBuffer)
+                    : lengthEncoder.encode(in, lengthBuffer, true);
+            bytes += lengthBuffer.position();
+            lengthBuffer.clear();
+            if (result.isUnderflow()) {
+                if (flushed) {
+                    return bytes;
+                }
+                flushed = true;
+            }
+        }
+    }
+
+    private int shardFor(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shards.length);
+    }
+
+    private Path partPath(int shardIndex, int partNumber) {
+        StringBuilder name = new StringBuilder(stem);
+        if (shards.length > 1) {
+            int width = Math.max(2, String.valueOf(shards.length - 1).length());
+            name.append('-').append(String.format("%0" + width + "d", shardIndex));
+        }
+        if (config.isRollingOutput()) {
+            name.append('-').append(String.format("%05d", partNumber));
+        }
+        name.append(extension);
+        return directory.resolve(name.toString());
+    }
+
+    // Количество строк в существующей части: из прежнего манифеста, если размер файла
+    // совпадает с записанным в нем, иначе подсчетом строк в самом файле
+    private long existingLines(Path path, long size) throws IOException {
+        if (previousManifest == null) {
+            previousManifest = OutputManifest.read(config.getManifestPath());
+        }
+        String[] entry = previousManifest.get(path.getFileName().toString());
+        if (entry != null && entry[3].equals(String.valueOf(size))) {
+            try {
+                return Long.parseLong(entry[2]);
+            } catch (NumberFormatException e) {
+
+            }
+        }
+
+        LineReader lineReader = new LineReader();
+        try (DecodingReader reader = new DecodingReader(Files.newInputStream(path), config.getOutputEncoding(), false)) {
+            lineReader.reset(reader);
+            long count = 0;
+            while (lineReader.nextLine()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    // UTF-16 пишет BOM в начале каждого writer'а, поэтому при дописывании в непустой
+    // файл используется тот же порядок байтов без метки
+    private BufferedWriter createWriter(OutputStream counter, long existing) {
+        Charset charset = config.getOutputEncoding();
+        if (existing > 0 && charset.equals(StandardCharsets.UTF_16)) {
+            charset = StandardCharsets.UTF_16BE;
+        }
+        return new BufferedWriter(new OutputStreamWriter(counter, charset));
+    }
+
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // не все платформы позволяют синхронизировать директорию
+        }
+    }
+
+    static Path tempPathFor(Path target) {
+        return target.resolveSibling("." + target.getFileName() + TEMP_SUFFIX);
+    }
+
+    private FileChannel openChannel(Path path) throws IOException {
+        Set<OpenOption> options = new HashSet<>();
+        options.add(StandardOpenOption.CREATE);
+        options.add(StandardOpenOption.WRITE);
+
+        if (config.isAppendMode()) {
+            options.add(StandardOpenOption.APPEND);
+        } else {
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        return FileChannel.open(path, options);
+    }
+
+    /**
+     * Описание одной созданной части: путь, количество строк, записанных за этот запуск,
+     * и итоговый размер файла в байтах.
+     */
+    public static final class Part {
+        private final String type;
+        private final Path path;
+        private final Path file;
+        private final long lines;
+        private final long bytes;
+
+        Part(String type, Path path, Path file, long lines, long bytes) {
+            this.type = type;
+            this.path = path;
+            this.file = file;
+            this.lines = lines;
+            this.bytes = bytes;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private final class Shard {
+        private final int index;
+        private int partNumber = 0;
+        private Path currentPath;
+        private Path currentFile;
+        private BufferedWriter writer;
+        private FileChannel channel;
+        private CountingOutputStream counter;
+        private long lines;
+        private long existingLines;
+        private long bytes;
+        private long syncedBytes;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        void writeLine(char[] chars, int offset, int length) throws IOException {
+            long lineBytes = config.getMaxFileBytes() > 0 ? encodedLength(chars, offset, length) + separatorBytes : 0;
+            if (writer != null && limitReached(lineBytes)) {
+                closePart();
+            }
+            if (writer == null) {
+                openNextPart(lineBytes);
+            }
+
+            writer.write(chars, offset, length);
+            writer.newLine();
+            lines++;
+            bytes += lineBytes;
+
+            if (config.getDurability() == ProcessingConfig.Durability.PERIODIC
+                    && counter.getCount() - syncedBytes >= config.getFsyncIntervalBytes()) {
+                writer.flush();
+                channel.force(false);
+                syncedBytes = counter.getCount();
+            }
+        }
+
+        // Размер считается по закодированным строкам, а не по байтам, дошедшим до файла
+        // через буферы writer'а: часть превышает --max-size, только если в ней одна
+        // строка длиннее лимита
+        private boolean limitReached(long lineBytes) {
+            if (config.getMaxFileLines() > 0 && existingLines + lines >= config.getMaxFileLines()) {
+                return true;
+            }
+            return config.getMaxFileBytes() > 0 && bytes + lineBytes > config.getMaxFileBytes();
+        }
+
+        private void openNextPart(long lineBytes) throws IOException {
+            while (true) {
+                partNumber++;
+                currentPath = partPath(index, partNumber);
+
+                long existing = 0;
+                if (config.isAppendMode() && Files.exists(currentPath)) {
+                    existing = Files.size(currentPath);
+                }
+                if (existing > 0 && config.getMaxFileBytes() > 0 && existing + lineBytes > config.getMaxFileBytes()) {
+                    continue;
+                }
+                long linesBefore = 0;
+                if (existing > 0 && config.getMaxFileLines() > 0) {
+                    linesBefore = existingLines(currentPath, existing);
+                    if (linesBefore >= config.getMaxFileLines()) {
+                        continue;
+                    }
+                }
+
+                if (config.isAppendMode()) {
+                    currentFile = currentPath;
+                    if (journal != null) {
+                        journal.record(currentFile);
+                    }
+                } else {
+                    currentFile = tempPathFor(currentPath);
+                }
+
+                pendingFiles.add(currentFile);
+                channel = openChannel(currentFile);
+                counter = new CountingOutputStream(Channels.newOutputStream(channel), existing);
+                writer = createWriter(counter, existing);
+                lines = 0;
+                existingLines = linesBefore;
+                // UTF-16 с меткой порядка байтов начинает новый файл с BOM
+                bytes = existing == 0 && config.getOutputEncoding().equals(StandardCharsets.UTF_16) ? 2 : existing;
+                syncedBytes = existing;
+                return;
+            }
+        }
+
+        void closePart() throws IOException {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.flush();
+                if (config.getDurability() != ProcessingConfig.Durability.NONE) {
+                    channel.force(true);
+                }
+            } finally {
+                writer.close();
+                writer = null;
+                channel = null;
+                counter = null;
+            }
+            parts.add(new Part(type, currentPath, currentFile, lines, Files.size(currentFile)));
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out, long initialCount) {
+            super(out);
+            this.count = initialCount;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
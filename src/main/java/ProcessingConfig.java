@@ -1,3 +1,5 @@
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -7,29 +9,83 @@ public class ProcessingConfig {
         SIMPLE,
         FULL
     }
+
+    public enum Durability {
+        NONE,
+        END,
+        PERIODIC
+    }
+
+    public enum MalformedInput {
+        REPLACE,
+        REPORT
+    }
     private Path outputDirectory;
     private String filePrefix;
     private boolean appendMode;
     private StatsMode statsMode;
-    private final Path[] inputFiles;
+    private final String[] inputs;
+    private final long maxFileBytes;
+    private final long maxFileLines;
+    private final int shardCount;
+    private final Durability durability;
+    private final long fsyncIntervalBytes;
+    private final int prefetchDepth;
+    private final Path workingDirectory;
+    private final Charset inputEncoding;
+    private final Charset outputEncoding;
+    private final MalformedInput malformedInput;
 
     public static final String DEFAULT_INTEGERS_FILE = "integers.txt";
     public static final String DEFAULT_FLOATS_FILE = "floats.txt";
     public static final String DEFAULT_STRINGS_FILE = "strings.txt";
+    public static final String DEFAULT_MANIFEST_FILE = "manifest.txt";
     public static final Path DEFAULT_OUTPUT_DIR = Paths.get(".");
+    public static final long DEFAULT_FSYNC_INTERVAL_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_PREFETCH_DEPTH = 4;
 
     private ProcessingConfig(Path outputDirectory, String filePrefix,
                              boolean appendMode, StatsMode statsMode,
-                             Path[] inputFiles) {
+                             String[] inputs, long maxFileBytes,
+                             long maxFileLines, int shardCount,
+                             Durability durability, long fsyncIntervalBytes,
+                             int prefetchDepth, Path workingDirectory,
+                             Charset inputEncoding, Charset outputEncoding,
+                             MalformedInput malformedInput) {
         this.outputDirectory = outputDirectory != null ? outputDirectory : DEFAULT_OUTPUT_DIR;
         this.filePrefix = filePrefix != null ? filePrefix : "";
         this.appendMode = appendMode;
         this.statsMode = statsMode != null ? statsMode : StatsMode.NONE;
-        this.inputFiles = inputFiles;
+        this.inputs = inputs;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileLines = maxFileLines;
+        this.shardCount = shardCount;
+        this.durability = durability != null ? durability : Durability.END;
+        this.fsyncIntervalBytes = fsyncIntervalBytes;
+        this.prefetchDepth = prefetchDepth;
+        this.workingDirectory = workingDirectory;
+        this.inputEncoding = inputEncoding != null ? inputEncoding : StandardCharsets.UTF_8;
+        this.outputEncoding = outputEncoding != null ? outputEncoding : StandardCharsets.UTF_8;
+        this.malformedInput = malformedInput != null ? malformedInput : MalformedInput.REPORT;
 
-        if (this.inputFiles == null || this.inputFiles.length == 0) {
+        if (this.inputs == null || this.inputs.length == 0) {
             throw new IllegalArgumentException("Input files must be specified");
         }
+        if (this.maxFileBytes < 0 || this.maxFileLines < 0) {
+            throw new IllegalArgumentException("Rollover limits must not be negative");
+        }
+        if (this.shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        if (this.fsyncIntervalBytes <= 0) {
+            throw new IllegalArgumentException("Fsync interval must be positive");
+        }
+        if (this.prefetchDepth < 1) {
+            throw new IllegalArgumentException("Prefetch depth must be positive");
+        }
+        if (!this.outputEncoding.canEncode()) {
+            throw new IllegalArgumentException("Output encoding does not support encoding: " + this.outputEncoding);
+        }
 
     }
 
@@ -49,8 +105,68 @@ public class ProcessingConfig {
         return statsMode;
     }
 
-    public Path[] getInputFiles() {
-        return inputFiles;
+    /**
+     * Входные аргументы в исходном виде: пути к файлам, директории,
+     * glob-шаблоны и ссылки на списки файлов вида @список.
+     */
+    public String[] getInputs() {
+        return inputs;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    public long getMaxFileLines() {
+        return maxFileLines;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getFsyncIntervalBytes() {
+        return fsyncIntervalBytes;
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Директория, относительно которой разрешаются относительные входные пути,
+     * или null для текущей директории процесса.
+     */
+    public Path getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    /**
+     * Кодировка входных файлов. Если это UTF-8 или UTF-16, метка порядка байтов (BOM)
+     * в начале файла имеет приоритет над ней.
+     */
+    public Charset getInputEncoding() {
+        return inputEncoding;
+    }
+
+    public Charset getOutputEncoding() {
+        return outputEncoding;
+    }
+
+    public MalformedInput getMalformedInput() {
+        return malformedInput;
+    }
+
+    public boolean isRollingOutput() {
+        return maxFileBytes > 0 || maxFileLines > 0;
+    }
+
+    public boolean isPartitionedOutput() {
+        return isRollingOutput() || shardCount > 1;
     }
 
     public Path getIntegersOutputPath() {
@@ -65,12 +181,26 @@ public class ProcessingConfig {
         return outputDirectory.resolve(filePrefix + DEFAULT_STRINGS_FILE);
     }
 
+    public Path getManifestPath() {
+        return outputDirectory.resolve(filePrefix + DEFAULT_MANIFEST_FILE);
+    }
+
     public static class Builder {
         private Path outputDirectory = DEFAULT_OUTPUT_DIR;
         private String filePrefix = "";
         private boolean appendMode = false;
         private StatsMode statsMode = StatsMode.NONE;
-        private Path[] inputFiles;
+        private String[] inputs;
+        private long maxFileBytes = 0;
+        private long maxFileLines = 0;
+        private int shardCount = 1;
+        private Durability durability = Durability.END;
+        private long fsyncIntervalBytes = DEFAULT_FSYNC_INTERVAL_BYTES;
+        private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+        private Path workingDirectory = null;
+        private Charset inputEncoding = StandardCharsets.UTF_8;
+        private Charset outputEncoding = StandardCharsets.UTF_8;
+        private MalformedInput malformedInput = MalformedInput.REPORT;
 
         public Builder outputDirectory(String path) {
             this.outputDirectory = Paths.get(path);
@@ -97,17 +227,67 @@ public class ProcessingConfig {
             return this;
         }
 
+        public Builder maxFileBytes(long bytes) {
+            this.maxFileBytes = bytes;
+            return this;
+        }
+
+        public Builder maxFileLines(long lines) {
+            this.maxFileLines = lines;
+            return this;
+        }
+
+        public Builder shardCount(int shards) {
+            this.shardCount = shards;
+            return this;
+        }
+
+        public Builder durability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        public Builder fsyncIntervalBytes(long bytes) {
+            this.fsyncIntervalBytes = bytes;
+            return this;
+        }
+
+        public Builder prefetchDepth(int depth) {
+            this.prefetchDepth = depth;
+            return this;
+        }
+
+        public Builder workingDirectory(Path directory) {
+            this.workingDirectory = directory;
+            return this;
+        }
+
+        public Builder inputEncoding(Charset encoding) {
+            this.inputEncoding = encoding;
+            return this;
+        }
+
+        public Builder outputEncoding(Charset encoding) {
+            this.outputEncoding = encoding;
+            return this;
+        }
+
+        public Builder malformedInput(MalformedInput mode) {
+            this.malformedInput = mode;
+            return this;
+        }
+
         public Builder inputFiles(Path... files) {
-            this.inputFiles = files;
+            String[] paths = new String[files.length];
+            for (int i = 0; i < files.length; i++) {
+                paths[i] = files[i].toString();
+            }
+            this.inputs = paths;
             return this;
         }
 
         public Builder inputFiles(String... filePaths) {
-            Path[] paths = new Path[filePaths.length];
-            for (int i = 0; i < filePaths.length; i++) {
-                paths[i] = Paths.get(filePaths[i]);
-            }
-            this.inputFiles = paths;
+            this.inputs = filePaths.clone();
             return this;
         }
 
@@ -117,7 +297,17 @@ public class ProcessingConfig {
                     filePrefix,
                     appendMode,
                     statsMode,
-                    inputFiles
+                    inputs,
+                    maxFileBytes,
+                    maxFileLines,
+                    shardCount,
+                    durability,
+                    fsyncIntervalBytes,
+                    prefetchDepth,
+                    workingDirectory,
+                    inputEncoding,
+                    outputEncoding,
+                    malformedInput
             );
         }
     }
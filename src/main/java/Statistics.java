@@ -4,15 +4,28 @@ import java.math.RoundingMode;
 
 public interface Statistics {
     void addValue(String value);
+    void addValue(char[] chars, int offset, int length);
+
+    /**
+     * То же, что addValue, но без повторной проверки: вызывающий уже определил
+     * тип значения через TokenClassifier.classify.
+     */
+    void addClassifiedValue(char[] chars, int offset, int length);
     String getReport();
     int getCount();
 }
 
 class IntStatistics implements Statistics {
+    private static final int MAX_LONG_DIGITS = 18;
+
     private int count = 0;
-    private BigInteger sum = BigInteger.ZERO;
-    private BigInteger min = null;
-    private BigInteger max = null;
+    private long longSum = 0;
+    private BigInteger bigSum = BigInteger.ZERO;
+    private boolean hasLongRange = false;
+    private long longMin = 0;
+    private long longMax = 0;
+    private BigInteger bigMin = null;
+    private BigInteger bigMax = null;
     private final boolean fullMode;
 
     public IntStatistics(boolean fullMode) {
@@ -21,24 +34,102 @@ class IntStatistics implements Statistics {
 
     @Override
     public void addValue(String value) {
-        try {
-            BigInteger num = new BigInteger(value);
-            count++;
-            sum = sum.add(num);
+        addValue(value.toCharArray(), 0, value.length());
+    }
 
-            if (fullMode) {
-                if (min == null || num.compareTo(min) < 0) {
-                    min = num;
-                }
-                if (max == null || num.compareTo(max) > 0) {
-                    max = num;
-                }
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        if (TokenClassifier.isInteger(chars, offset, offset + length)) {
+            addClassifiedValue(chars, offset, length);
+        }
+    }
+
+    @Override
+    public void addClassifiedValue(char[] chars, int offset, int length) {
+        int end = offset + length;
+        count++;
+        if (!fullMode) {
+            return;
+        }
+
+        boolean negative = chars[offset] == '-';
+        int pos = TokenClassifier.skipSign(chars, offset, end);
+        long value = 0;
+        int digits = 0;
+        for (; pos < end; pos++) {
+            char c = chars[pos];
+            if (c == ',') {
+                continue;
             }
-        } catch (NumberFormatException e) {
+            if (c < '0' || c > '9' || digits == MAX_LONG_DIGITS) {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            digits++;
+        }
 
+        if (pos == end) {
+            addLong(negative ? -value : value);
+        } else {
+            addBig(parseBig(chars, offset, end));
         }
     }
 
+    private void addLong(long num) {
+        long result = longSum + num;
+        if (((longSum ^ result) & (num ^ result)) < 0) {
+            bigSum = bigSum.add(BigInteger.valueOf(longSum));
+            longSum = num;
+        } else {
+            longSum = result;
+        }
+
+        if (!hasLongRange) {
+            longMin = num;
+            longMax = num;
+            hasLongRange = true;
+        } else {
+            longMin = Math.min(longMin, num);
+            longMax = Math.max(longMax, num);
+        }
+    }
+
+    private void addBig(BigInteger num) {
+        bigSum = bigSum.add(num);
+        if (bigMin == null || num.compareTo(bigMin) < 0) {
+            bigMin = num;
+        }
+        if (bigMax == null || num.compareTo(bigMax) > 0) {
+            bigMax = num;
+        }
+    }
+
+    private static BigInteger parseBig(char[] chars, int start, int end) {
+        StringBuilder digits = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            if (chars[i] != ',') {
+                digits.append(chars[i]);
+            }
+        }
+        return new BigInteger(digits.toString());
+    }
+
+    private BigInteger min() {
+        if (!hasLongRange) {
+            return bigMin;
+        }
+        BigInteger small = BigInteger.valueOf(longMin);
+        return bigMin == null || small.compareTo(bigMin) < 0 ? small : bigMin;
+    }
+
+    private BigInteger max() {
+        if (!hasLongRange) {
+            return bigMax;
+        }
+        BigInteger small = BigInteger.valueOf(longMax);
+        return bigMax == null || small.compareTo(bigMax) > 0 ? small : bigMax;
+    }
+
     @Override
     public int getCount() {
         return count;
@@ -49,12 +140,13 @@ class IntStatistics implements Statistics {
         StringBuilder sb = new StringBuilder();
         sb.append("Integers: ").append(count);
         if (fullMode && count > 0) {
+            BigInteger sum = bigSum.add(BigInteger.valueOf(longSum));
             BigDecimal avg = new BigDecimal(sum)
                     .divide(new BigDecimal(count), 2, RoundingMode.HALF_UP);
             String avgStr = avg.stripTrailingZeros().toPlainString();
 
             sb.append(String.format(" | Min: %s | Max: %s | Sum: %s | Avg: %s",
-                    min, max, sum, avgStr));
+                    min(), max(), sum, avgStr));
         }
 
         return sb.toString();
@@ -64,8 +156,9 @@ class IntStatistics implements Statistics {
 class FloatStatistics implements Statistics {
     private int count = 0;
     private double sum = 0;
-    private Double min = null;
-    private Double max = null;
+    private boolean hasRange = false;
+    private double min = 0;
+    private double max = 0;
     private final boolean fullMode;
 
     public FloatStatistics(boolean fullMode) {
@@ -74,19 +167,35 @@ class FloatStatistics implements Statistics {
 
     @Override
     public void addValue(String value) {
+        addValue(value.toCharArray(), 0, value.length());
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        if (TokenClassifier.isFloat(chars, offset, offset + length)) {
+            addClassifiedValue(chars, offset, length);
+        }
+    }
+
+    @Override
+    public void addClassifiedValue(char[] chars, int offset, int length) {
+        if (!fullMode) {
+            count++;
+            return;
+        }
+
         try {
-            double num = Double.parseDouble(value);
+            double num = FloatParser.parse(chars, offset, offset + length);
             count++;
             sum += num;
 
-            if (fullMode) {
-                if (min == null || num < min) {
-                    min = num;
-                }
-                if (max == null || num > max) {
-                    max = num;
-                }
+            if (!hasRange || num < min) {
+                min = num;
+            }
+            if (!hasRange || num > max) {
+                max = num;
             }
+            hasRange = true;
         } catch (NumberFormatException e) {
 
         }
@@ -114,8 +223,9 @@ class FloatStatistics implements Statistics {
 
 class StringStatistics implements Statistics {
     private int count = 0;
-    private Integer minLength = null;
-    private Integer maxLength = null;
+    private boolean hasRange = false;
+    private int minLength = 0;
+    private int maxLength = 0;
     private final boolean fullMode;
 
     public StringStatistics(boolean fullMode) {
@@ -124,16 +234,26 @@ class StringStatistics implements Statistics {
 
     @Override
     public void addValue(String value) {
+        addValue(value.toCharArray(), 0, value.length());
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        addClassifiedValue(chars, offset, length);
+    }
+
+    @Override
+    public void addClassifiedValue(char[] chars, int offset, int length) {
         count++;
 
         if (fullMode) {
-            int length = value.length();
-            if (minLength == null || length < minLength) {
+            if (!hasRange || length < minLength) {
                 minLength = length;
             }
-            if (maxLength == null || length > minLength) {
+            if (!hasRange || length > minLength) {
                 maxLength = length;
             }
+            hasRange = true;
         }
     }
 
@@ -154,4 +274,98 @@ class StringStatistics implements Statistics {
 
         return sb.toString();
     }
-}
\ No newline at end of file
+}
+final class FloatParser {
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private FloatParser() {
+    }
+
+    // Быстрый путь для до 15 значащих цифр и порядка до 22 точен (алгоритм Клингера),
+    // остальные значения разбираются через Double.parseDouble
+    static double parse(char[] chars, int start, int end) {
+        boolean negative = chars[start] == '-';
+        int pos = TokenClassifier.skipSign(chars, start, end);
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+
+        for (; pos < end; pos++) {
+            char c = chars[pos];
+            if (c >= '0' && c <= '9') {
+                if (mantissa == 0 && c == '0') {
+                    if (fraction) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (digits == MAX_EXACT_DIGITS) {
+                    return parseSlow(chars, start, end);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (c == ',' && !fraction) {
+                continue;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (pos < end && (chars[pos] == 'e' || chars[pos] == 'E')) {
+            boolean negativeExponent = chars[pos + 1] == '-';
+            pos = TokenClassifier.skipSign(chars, pos + 1, end);
+            int value = 0;
+            for (; pos < end; pos++) {
+                char c = chars[pos];
+                if (c < '0' || c > '9' || value > 1000) {
+                    return parseSlow(chars, start, end);
+                }
+                value = value * 10 + (c - '0');
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (pos != end) {
+            return parseSlow(chars, start, end);
+        }
+
+        double result;
+        if (mantissa == 0) {
+            result = 0.0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            result = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            result = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseSlow(chars, start, end);
+        }
+        return negative ? -result : result;
+    }
+
+    private static double parseSlow(char[] chars, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c == ',') {
+                continue;
+            }
+            if (Character.isDigit(c) && (c < '0' || c > '9')) {
+                sb.append((char) ('0' + Character.digit(c, 10)));
+            } else {
+                sb.append(c);
+            }
+        }
+        return Double.parseDouble(sb.toString());
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Определяет тип токена без создания объектов. Грамматика повторяет
+ * hasNextBigInteger/hasNextDouble класса Scanner с Locale.US: знак, цифры
+ * (включая цифры Unicode), группировка разрядов через запятую, дробная часть,
+ * экспонента, шестнадцатеричные дроби, NaN и Infinity.
+ */
+public final class TokenClassifier {
+    public enum TokenType {
+        INTEGER,
+        FLOAT,
+        STRING
+    }
+
+    private TokenClassifier() {
+    }
+
+    public static TokenType classify(char[] chars, int start, int end) {
+        if (isInteger(chars, start, end)) {
+            return TokenType.INTEGER;
+        }
+        if (isFloat(chars, start, end)) {
+            return TokenType.FLOAT;
+        }
+        return TokenType.STRING;
+    }
+
+    static boolean isInteger(char[] chars, int start, int end) {
+        int pos = skipSign(chars, start, end);
+        return numeralEnd(chars, pos, end) == end;
+    }
+
+    static boolean isFloat(char[] chars, int start, int end) {
+        int pos = skipSign(chars, start, end);
+        if (pos >= end) {
+            return false;
+        }
+        if (isNonNumber(chars, pos, end) || isHexFloat(chars, pos, end)) {
+            return true;
+        }
+
+        if (chars[pos] == '.') {
+            int digitsEnd = skipDigits(chars, pos + 1, end);
+            if (digitsEnd == pos + 1) {
+                return false;
+            }
+            pos = digitsEnd;
+        } else {
+            pos = numeralEnd(chars, pos, end);
+            if (pos < 0) {
+                return false;
+            }
+            if (pos < end && chars[pos] == '.') {
+                pos = skipDigits(chars, pos + 1, end);
+            }
+        }
+
+        if (pos < end && (chars[pos] == 'e' || chars[pos] == 'E')) {
+            int digitsStart = skipSign(chars, pos + 1, end);
+            pos = skipDigits(chars, digitsStart, end);
+            if (pos == digitsStart) {
+                return false;
+            }
+        }
+        return pos == end;
+    }
+
+    static int skipSign(char[] chars, int pos, int end) {
+        if (pos < end && (chars[pos] == '-' || chars[pos] == '+')) {
+            return pos + 1;
+        }
+        return pos;
+    }
+
+    static int skipDigits(char[] chars, int pos, int end) {
+        while (pos < end && Character.isDigit(chars[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    // Конец числа без знака (цифры подряд или группы ",ddd"), либо -1, если цифр нет
+    private static int numeralEnd(char[] chars, int pos, int end) {
+        int digitsEnd = skipDigits(chars, pos, end);
+        int run = digitsEnd - pos;
+        if (run == 0) {
+            return -1;
+        }
+        if (run > 3 || chars[pos] == '0' || digitsEnd >= end || chars[digitsEnd] != ',') {
+            return digitsEnd;
+        }
+
+        int groupsEnd = digitsEnd;
+        while (groupsEnd + 3 < end && chars[groupsEnd] == ','
+                && Character.isDigit(chars[groupsEnd + 1])
+                && Character.isDigit(chars[groupsEnd + 2])
+                && Character.isDigit(chars[groupsEnd + 3])) {
+            groupsEnd += 4;
+        }
+        return groupsEnd > digitsEnd ? groupsEnd : digitsEnd;
+    }
+
+    private static boolean isNonNumber(char[] chars, int pos, int end) {
+        return regionEquals(chars, pos, end, "NaN")
+                || regionEquals(chars, pos, end, "Infinity");
+    }
+
+    private static boolean isHexFloat(char[] chars, int pos, int end) {
+        if (end - pos < 4 || chars[pos] != '0' || (chars[pos + 1] != 'x' && chars[pos + 1] != 'X')) {
+            return false;
+        }
+        pos = skipHexDigits(chars, pos + 2, end);
+        if (pos >= end || chars[pos] != '.') {
+            return false;
+        }
+        int fractionStart = pos + 1;
+        pos = skipHexDigits(chars, fractionStart, end);
+        if (pos == fractionStart) {
+            return false;
+        }
+        // Без двоичной экспоненты Double.parseDouble отвергает запись, а вместе с ним и Scanner
+        if (pos >= end || (chars[pos] != 'p' && chars[pos] != 'P')) {
+            return false;
+        }
+        int exponentStart = skipSign(chars, pos + 1, end);
+        pos = exponentStart;
+        while (pos < end && chars[pos] >= '0' && chars[pos] <= '9') {
+            pos++;
+        }
+        return pos > exponentStart && pos == end;
+    }
+
+    private static int skipHexDigits(char[] chars, int pos, int end) {
+        while (pos < end && Character.digit(chars[pos], 16) >= 0 && chars[pos] < 128) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean regionEquals(char[] chars, int pos, int end, String expected) {
+        if (end - pos != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (chars[pos + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Построчная обработка не должна выделять память: после прогрева на том же файле
+ * выделения в потоке обработки (настройка вывода и буферы, не зависящие от числа
+ * строк) укладываются в несколько байтов на строку. Значения во входных данных
+ * помещаются в long и double, чтобы не затрагивать запасные пути через BigInteger
+ * и Double.parseDouble.
+ */
+public class DataClassifierAllocationTest {
+    private static final int LINES = 200_000;
+    private static final double MAX_BYTES_PER_LINE = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void classifiesLinesWithoutPerLineAllocation() throws IOException {
+        Path input = folder.getRoot().toPath().resolve("input.txt");
+        writeInput(input);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        assertTrue(classify(input, folder.newFolder("warmup").toPath()));
+        long before = threads.getThreadAllocatedBytes(thread);
+        assertTrue(classify(input, folder.newFolder("measured").toPath()));
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        double perLine = (double) allocated / LINES;
+        assertTrue("Выделено " + perLine + " байт на строку", perLine < MAX_BYTES_PER_LINE);
+    }
+
+    private static boolean classify(Path input, Path outputDirectory) {
+        ProcessingConfig config = new ProcessingConfig.Builder()
+                .outputDirectory(outputDirectory)
+                .statsMode(ProcessingConfig.StatsMode.FULL)
+                .durability(ProcessingConfig.Durability.NONE)
+                .inputFiles(input)
+                .build();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        return new DataClassifier(config, null, discard, discard).process();
+    }
+
+    private static void writeInput(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < LINES; i++) {
+                switch (i % 5) {
+                    case 0:
+                        writer.write(Integer.toString(i * 7919 - 500_000));
+                        break;
+                    case 1:
+                        writer.write("-" + i + "." + (i % 1000) + "e-3");
+                        break;
+                    case 2:
+                        writer.write("строка " + i + " текст");
+                        break;
+                    case 3:
+                        writer.write("1234567890" + i);
+                        break;
+                    default:
+                        writer.write(i + ",000.25 слово " + (i % 10));
+                        break;
+                }
+                writer.newLine();
+            }
+        }
+    }
+}